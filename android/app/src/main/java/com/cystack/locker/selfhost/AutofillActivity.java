@@ -0,0 +1,11 @@
+package com.cystack.locker.selfhost;
+
+/**
+ * The app opened to complete an autofill request, see UnlockFillActivity#openApp.
+ *
+ * MainActivity is singleTask, a result for a caller in another task is dropped. This activity runs the
+ * same React app with the standard launch mode: it's started for a result on top of the autofill
+ * activity and the picked dataset goes back through it to the framework.
+ */
+public class AutofillActivity extends MainActivity {
+}
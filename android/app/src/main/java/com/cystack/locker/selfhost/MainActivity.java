@@ -1,6 +1,7 @@
 package com.cystack.locker.selfhost;
 
 import android.app.Activity;
+import android.content.Intent;
 import android.os.Build;
 import android.os.Bundle;
 
@@ -38,12 +39,21 @@ public class MainActivity extends ReactActivity {
   @Override
   protected void onCreate(Bundle savedInstanceState) {
     RNBootSplash.init(this, R.style.BootTheme);            // <- initialize the splash screen
+    // keep a React context pre-warmed for autofill, see MainApplication#prewarmReact
+    ((MainApplication) getApplication()).onReactActivityCreated();
     super.onCreate(null);               // or super.onCreate(savedInstanceState) when not using react-native-screens
 
 
     getWindow().setFlags(WindowManager.LayoutParams.FLAG_SECURE, WindowManager.LayoutParams.FLAG_SECURE);
   }
 
+  @Override
+  public void onNewIntent(Intent intent) {
+    super.onNewIntent(intent);
+    // singleTask: keep the latest intent, e.g. a save request; fill requests open AutofillActivity
+    setIntent(intent);
+  }
+
   public static class AppActivityDelegate extends ReactActivityDelegate {
     private static final String ENABLE_AUTOFILL = "autofill";
     private static final String SAVE_LOGIN = "savePassword";
@@ -1,19 +1,39 @@
 package com.cystack.locker.selfhost;
 
+import android.app.ActivityManager;
 import android.app.Application;
+import android.content.ComponentCallbacks2;
+import android.content.Context;
+import android.os.Build;
+import android.os.Handler;
+import android.os.Looper;
 import androidx.annotation.NonNull;
 
+import com.cystack.locker.selfhost.autofill.AppDomains;
+import com.cystack.locker.selfhost.autofill.PublicSuffixes;
 import com.facebook.react.PackageList;
 import com.facebook.react.ReactApplication;
+import com.facebook.react.ReactInstanceManager;
 import com.facebook.react.ReactNativeHost;
 import com.facebook.react.ReactPackage;
 import com.facebook.react.defaults.DefaultNewArchitectureEntryPoint;
 import com.facebook.react.defaults.DefaultReactNativeHost;
 import com.facebook.soloader.SoLoader;
 
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
 import java.util.List;
 
 public class MainApplication extends Application implements ReactApplication {
+  // Process of the autofill service and its activities, see AndroidManifest.xml
+  private static final String AUTOFILL_PROCESS_SUFFIX = ":autofill";
+  // How long a React context started for autofill waits for the app to be opened
+  private static final long PREWARM_TIMEOUT_MS = 60 * 1000;
+
+  private final Handler mainHandler = new Handler(Looper.getMainLooper());
+  private final Runnable releasePrewarm = this::releasePrewarm;
+  private boolean prewarmed;
 
   private final ReactNativeHost mReactNativeHost =
     new DefaultReactNativeHost(this) {
@@ -55,6 +75,13 @@ public class MainApplication extends Application implements ReactApplication {
   @Override
   public void onCreate() {
     super.onCreate();
+    // both processes key credentials by registrable domain, the trie is only mapped on first use
+    PublicSuffixes.init(this);
+    AppDomains.init(this);
+    if (isAutofillProcess()) {
+      // The autofill service never runs React, keep its cold start to the service itself
+      return;
+    }
     SoLoader.init(this, /* native exopackage */ false);
     if (BuildConfig.IS_NEW_ARCHITECTURE_ENABLED) {
       // If you opted-in for the New Architecture, we load the native entry point for this app.
@@ -62,4 +89,77 @@ public class MainApplication extends Application implements ReactApplication {
     }
     ReactNativeFlipper.initializeFlipper(this, getReactNativeHost().getReactInstanceManager());
   }
+
+  @Override
+  public void onTrimMemory(int level) {
+    super.onTrimMemory(level);
+    if (level >= ComponentCallbacks2.TRIM_MEMORY_RUNNING_LOW) {
+      releasePrewarm();
+    }
+  }
+
+  /**
+   * Starts creating the React context ahead of MainActivity when an autofill response will likely open
+   * the app, see ReactPrewarmProvider. Skipped on low memory, and released again if the app isn't
+   * opened within PREWARM_TIMEOUT_MS. Main thread only.
+   */
+  void prewarmReact() {
+    ReactInstanceManager manager = getReactNativeHost().getReactInstanceManager();
+    if (manager.hasStartedCreatingInitialContext() || isLowOnMemory()) {
+      return;
+    }
+    prewarmed = true;
+    manager.createReactContextInBackground();
+    mainHandler.postDelayed(releasePrewarm, PREWARM_TIMEOUT_MS);
+  }
+
+  /**
+   * MainActivity takes over the pre-warmed context, it's no longer released.
+   */
+  void onReactActivityCreated() {
+    prewarmed = false;
+    mainHandler.removeCallbacks(releasePrewarm);
+  }
+
+  private void releasePrewarm() {
+    mainHandler.removeCallbacks(releasePrewarm);
+    if (!prewarmed) {
+      return;
+    }
+    prewarmed = false;
+    getReactNativeHost().clear();
+  }
+
+  private boolean isLowOnMemory() {
+    ActivityManager activityManager = (ActivityManager) getSystemService(Context.ACTIVITY_SERVICE);
+    if (activityManager == null) {
+      return true;
+    }
+    if (activityManager.isLowRamDevice()) {
+      return true;
+    }
+    ActivityManager.MemoryInfo memoryInfo = new ActivityManager.MemoryInfo();
+    activityManager.getMemoryInfo(memoryInfo);
+    return memoryInfo.lowMemory;
+  }
+
+  private static boolean isAutofillProcess() {
+    String processName = null;
+    if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.P) {
+      processName = Application.getProcessName();
+    } else {
+      try (FileInputStream in = new FileInputStream("/proc/self/cmdline")) {
+        byte[] buffer = new byte[256];
+        int length = in.read(buffer);
+        int end = 0;
+        while (end < length && buffer[end] != 0) {
+          end++;
+        }
+        processName = new String(buffer, 0, end, StandardCharsets.UTF_8);
+      } catch (IOException e) {
+        // assume the main process
+      }
+    }
+    return processName != null && processName.endsWith(AUTOFILL_PROCESS_SUFFIX);
+  }
 }
\ No newline at end of file
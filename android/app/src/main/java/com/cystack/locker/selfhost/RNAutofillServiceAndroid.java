@@ -1,11 +1,11 @@
 package com.cystack.locker.selfhost;
 
-import static android.view.autofill.AutofillManager.EXTRA_AUTHENTICATION_RESULT;
-
+import android.app.Activity;
 import android.app.PendingIntent;
 import android.content.Context;
 import android.content.Intent;
 import android.content.IntentSender;
+import android.net.Uri;
 import android.os.Build;
 import android.os.Bundle;
 import android.service.autofill.Dataset;
@@ -15,6 +15,7 @@ import android.widget.RemoteViews;
 import android.view.autofill.AutofillId;
 
 import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
 
 import com.facebook.react.bridge.NativeModule;
 import com.facebook.react.bridge.ReactApplicationContext;
@@ -22,45 +23,59 @@ import com.facebook.react.bridge.ReactContext;
 import com.facebook.react.bridge.ReactContextBaseJavaModule;
 import com.facebook.react.bridge.ReactMethod;
 import com.facebook.react.bridge.Callback;
+import com.facebook.react.bridge.Arguments;
+import com.facebook.react.bridge.Promise;
+import com.facebook.react.bridge.WritableArray;
+import com.facebook.react.bridge.WritableMap;
 
 import com.cystack.locker.selfhost.R;
 import com.cystack.locker.selfhost.autofill.AutofillItem;
+import com.cystack.locker.selfhost.autofill.FillLatency;
+import com.cystack.locker.selfhost.autofill.FillSessions;
+import com.cystack.locker.selfhost.autofill.FillTrace;
+import com.cystack.locker.selfhost.autofill.PendingSaves;
+import com.cystack.locker.selfhost.autofill.UnlockFillActivity;
 import com.cystack.locker.selfhost.autofill.Utils;
+import com.cystack.locker.selfhost.autofill.VaultWarmup;
 import com.cystack.locker.selfhost.autofill.Field;
 
 import java.util.ArrayList;
-import java.util.Objects;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 public class RNAutofillServiceAndroid extends ReactContextBaseJavaModule {
+    public static final String NAME = "RNAutofillServiceAndroid";
     public static final String DOMAIN = "domain";
+    private static final long VAULT_READY_TIMEOUT_MS = 3000;
 
-    private static ArrayList<Field> sfields = null;
-    private static String credentialID = null;
-    public static PendingIntent newIntentSenderForResponse(@NonNull Context context, ArrayList<Field> fields, String domain) {
-        // store fillable field in Activity Static variable
-        credentialID = domain;
-        sfields = fields;
-        Intent intent = new Intent(context, MainActivity.class);
+    // waits for the vault and writes the credential store off the bridge thread, in call order
+    private static final ExecutorService executor = Executors.newSingleThreadExecutor(
+            runnable -> new Thread(runnable, "autofill-module"));
+
+    /**
+     * Pick an item in the app, used by {@link UnlockFillActivity} when the vault needs the app, e.g. to log in.
+     * @param session - token of the {@link FillSessions} session the picked item completes
+     */
+    public static Intent newIntentForResponse(@NonNull Context context, String session, String domain) {
+        Intent intent = new Intent(context, AutofillActivity.class);
+        intent.setData(Uri.parse("locker-autofill://session/" + Uri.encode(session)));
         intent.putExtra("autofill", 1); //start app by autofill service
         intent.putExtra(DOMAIN, domain);
-        return PendingIntent.getActivity(context, 1001, intent,
-                PendingIntent.FLAG_CANCEL_CURRENT | PendingIntent.FLAG_IMMUTABLE);
+        intent.putExtra(FillSessions.EXTRA_SESSION, session);
+        return intent;
     }
 
-    public static PendingIntent newIntentSenderForFillResponse(@NonNull Context context, ArrayList<Field> fields, String domain, String itemID) {
-        // store fillable field in Activity Static variable
-        credentialID = domain;
-        sfields = fields;
-        Intent intent = new Intent(context, MainActivity.class);
+    public static Intent newIntentForFillResponse(@NonNull Context context, String session, String itemID) {
+        Intent intent = new Intent(context, AutofillActivity.class);
+        intent.setData(Uri.parse("locker-autofill://item/" + Uri.encode(session) + "/" + Uri.encode(itemID)));
         intent.putExtra("lastFill", 1); //start app by autofill service
         intent.putExtra("itemID", itemID);
-        return PendingIntent.getActivity(context, 1002, intent,
-                PendingIntent.FLAG_CANCEL_CURRENT | PendingIntent.FLAG_IMMUTABLE);
+        intent.putExtra(FillSessions.EXTRA_SESSION, session);
+        return intent;
     }
 
     public static Intent newIntentForSaveLogin(@NonNull Context context, ArrayList<Field> fields, String domain) {
-        credentialID = domain;
-
         String username = null;
         String password = null;
 
@@ -93,7 +108,7 @@ public class RNAutofillServiceAndroid extends ReactContextBaseJavaModule {
     @NonNull
     @Override
     public String getName() {
-        return "RNAutofillServiceAndroid";
+        return NAME;
     }
 
     @ReactMethod
@@ -102,34 +117,183 @@ public class RNAutofillServiceAndroid extends ReactContextBaseJavaModule {
     }
     
     @ReactMethod
-    public void removeLastItem() {
-        Utils.RemoveCredential(credentialID);
+    public void removeLastItem(Promise promise) {
+        FillSessions.Session session = currentSession();
+        executor.execute(() -> {
+            if (session != null && initCredentialsStore()) {
+                Utils.RemoveCredential(session.domain);
+            }
+            promise.resolve(null);
+        });
     }
 
     @ReactMethod
-    public void useLastItem() {
-        AutofillItem data = Utils.GetCredential(credentialID);
-        buildResponse(data);
+    public void useLastItem(String itemID, Promise promise) {
+        Activity activity = getCurrentActivity();
+        String token = currentSessionToken();
+        executor.execute(() -> {
+            AutofillItem data = null;
+            VaultWarmup.Vault vault = loadVault();
+            if (vault != null && vault.credentials != null) {
+                data = vault.credentials.findById(itemID);
+            }
+            FillSessions.Session session = FillSessions.get(getReactApplicationContext(), token);
+            if (data == null && session != null) {
+                data = Utils.GetCredential(session.domain);
+            }
+            buildResponse(activity, token, data);
+            promise.resolve(null);
+        });
     }
 
     @ReactMethod
-    public void addAutofillValue(String id, String userName, String password, String name, String uri) {
+    public void addAutofillValue(String id, String userName, String password, String name, String uri,
+            Promise promise) {
+        Activity activity = getCurrentActivity();
+        String token = currentSessionToken();
+        executor.execute(() -> {
+            initCredentialsStore();
 
-        AutofillItem data = new AutofillItem(id, userName, password, name, uri);
-        buildResponse(data);
+            AutofillItem data = new AutofillItem(id, userName, password, name, uri);
+            buildResponse(activity, token, data);
+            promise.resolve(null);
+        });
     }
 
-    private void buildResponse(AutofillItem data) {
-        RemoteViews presentation = new RemoteViews(getReactApplicationContext().getPackageName(), R.layout.remote_locker_app); // crash ?
-        Dataset response = Utils.BuildUnlockDataset(sfields, data, presentation);
+    /**
+     * Fill request latency per phase for the diagnostics screen: sample count, mean, max,
+     * p50 / p95 as bucket upper bounds (-1 past the last bound, 0 without samples) and the raw bucket counts.
+     */
+    @ReactMethod
+    public void getFillLatency(Promise promise) {
+        WritableMap result = Arguments.createMap();
+        WritableArray bounds = Arguments.createArray();
+        for (int bound : FillLatency.BUCKET_BOUNDS_MS) {
+            bounds.pushInt(bound);
+        }
+        result.putArray("bucketBoundsMs", bounds);
+        for (Map.Entry<String, FillLatency.Histogram> entry
+                : FillLatency.snapshot(getReactApplicationContext(), FillTrace.PHASES).entrySet()) {
+            FillLatency.Histogram histogram = entry.getValue();
+            WritableMap phase = Arguments.createMap();
+            phase.putInt("count", histogram.count);
+            phase.putDouble("meanMs", histogram.count > 0 ? histogram.totalMicros / 1000.0 / histogram.count : 0);
+            phase.putDouble("maxMs", histogram.maxMicros / 1000.0);
+            phase.putInt("p50Ms", histogram.quantileMs(0.5));
+            phase.putInt("p95Ms", histogram.quantileMs(0.95));
+            WritableArray buckets = Arguments.createArray();
+            for (int count : histogram.buckets) {
+                buckets.pushInt(count);
+            }
+            phase.putArray("buckets", buckets);
+            result.putMap(entry.getKey(), phase);
+        }
+        promise.resolve(result);
+    }
 
-        Utils.SetCredential(credentialID, data);
+    @ReactMethod
+    public void resetFillLatency() {
+        FillLatency.reset(getReactApplicationContext());
+    }
 
-        Intent replyIntent = new Intent();
-        replyIntent.putExtra(EXTRA_AUTHENTICATION_RESULT, response);
+    /**
+     * Oldest credentials confirmed in the native save screen, at most limit. Resolves
+     * {entries: [{seq, createdAt, account, name, username, password, uri}], last}; pass last to
+     * ackPendingSaves once the entries are in the vault. account is the email the entry was confirmed for.
+     */
+    @ReactMethod
+    public void getPendingSaves(int limit, Promise promise) {
+        PendingSaves.Batch batch = PendingSaves.peek(getReactApplicationContext(), limit);
+        WritableArray entries = Arguments.createArray();
+        for (PendingSaves.Entry entry : batch.entries) {
+            WritableMap map = Arguments.createMap();
+            map.putDouble("seq", entry.seq);
+            map.putDouble("createdAt", entry.createdAt);
+            map.putString("account", entry.account);
+            map.putString("name", entry.name);
+            map.putString("username", entry.username);
+            map.putString("password", entry.password);
+            map.putString("uri", entry.uri);
+            entries.pushMap(map);
+        }
+        WritableMap result = Arguments.createMap();
+        result.putArray("entries", entries);
+        result.putDouble("last", batch.last);
+        promise.resolve(result);
+    }
 
-        Objects.requireNonNull(getCurrentActivity()).setResult(-1, replyIntent); //RESULT_OK
-        Objects.requireNonNull(getCurrentActivity()).finish();
+    @ReactMethod
+    public void ackPendingSaves(double last) {
+        PendingSaves.ack(getReactApplicationContext(), (long) last);
     }
-}
 
+    /**
+     * Drop the pending saves, when the account signs out.
+     */
+    @ReactMethod
+    public void clearPendingSaves() {
+        PendingSaves.clear(getReactApplicationContext());
+    }
+
+    /**
+     * The autofill service runs in its own process, so the vault and the credential store remembering
+     * the last filled items are opened here too. Loaded again only when the app saved the vault since.
+     * Blocks, call it on the executor.
+     */
+    @Nullable
+    private VaultWarmup.Vault loadVault() {
+        VaultWarmup.ensureStarted(getReactApplicationContext());
+        return VaultWarmup.await(VAULT_READY_TIMEOUT_MS);
+    }
+
+    /**
+     * Open only the credential store, from the snapshot when the vault isn't loaded.
+     * Blocks, call it on the executor.
+     */
+    private boolean initCredentialsStore() {
+        if (VaultWarmup.initCredentialsStore(getReactApplicationContext())) {
+            return true;
+        }
+        VaultWarmup.Vault vault = loadVault();
+        return vault != null && vault.isLoggedInPw;
+    }
+
+    @Nullable
+    private String currentSessionToken() {
+        Activity activity = getCurrentActivity();
+        if (activity == null || activity.getIntent() == null) {
+            return null;
+        }
+        return activity.getIntent().getStringExtra(FillSessions.EXTRA_SESSION);
+    }
+
+    /**
+     * Session of the fill request the current activity was started for, null when it expired
+     * or the app was not opened from a dataset.
+     */
+    @Nullable
+    private FillSessions.Session currentSession() {
+        return FillSessions.get(getReactApplicationContext(), currentSessionToken());
+    }
+
+    private void buildResponse(@Nullable Activity activity, @Nullable String token, AutofillItem data) {
+        if (activity == null) {
+            return;
+        }
+        FillSessions.Session session = FillSessions.get(getReactApplicationContext(), token);
+        if (session == null) {
+            // expired, the user has to request autofill again
+            activity.runOnUiThread(() -> {
+                activity.setResult(Activity.RESULT_CANCELED);
+                activity.finish();
+            });
+            return;
+        }
+        Intent replyIntent = Utils.BuildAuthenticationReply(getReactApplicationContext(), token, session, data);
+
+        activity.runOnUiThread(() -> {
+            activity.setResult(-1, replyIntent); //RESULT_OK
+            activity.finish();
+        });
+    }
+}
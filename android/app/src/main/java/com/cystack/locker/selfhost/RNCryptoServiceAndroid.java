@@ -3,6 +3,7 @@ package com.cystack.locker.selfhost;
 import android.content.Context;
 
 import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
 
 import com.facebook.react.bridge.NativeModule;
 import com.facebook.react.bridge.ReactApplicationContext;
@@ -11,72 +12,358 @@ import com.facebook.react.bridge.ReactContextBaseJavaModule;
 import com.facebook.react.bridge.ReactMethod;
 import com.facebook.react.bridge.Promise;
 
+import com.facebook.react.bridge.Arguments;
+import com.facebook.react.bridge.ReadableArray;
+import com.facebook.react.bridge.ReadableMap;
+import com.facebook.react.bridge.WritableArray;
+import com.facebook.react.bridge.WritableMap;
+import com.facebook.react.modules.core.DeviceEventManagerModule;
+
 import java.util.Map;
 import java.util.HashMap;
 import java.util.Objects;
 import android.util.Log;
 
-import java.io.UnsupportedEncodingException;
+import java.io.File;
+import java.security.GeneralSecurityException;
 import java.security.InvalidKeyException;
-import java.security.KeyFactory;
-import java.security.NoSuchAlgorithmException;
 import java.security.PrivateKey;
-import java.security.PublicKey;
-import java.security.spec.InvalidKeySpecException;
-import java.security.spec.PKCS8EncodedKeySpec;
-import java.security.spec.X509EncodedKeySpec;
 import java.util.Base64;
+import java.util.concurrent.Callable;
 
-import javax.crypto.BadPaddingException;
-import javax.crypto.Cipher;
-import javax.crypto.IllegalBlockSizeException;
-import javax.crypto.NoSuchPaddingException;
+import com.cystack.locker.selfhost.crypto.AesCbcHmac;
+import com.cystack.locker.selfhost.crypto.AesCbcHmacFile;
+import com.cystack.locker.selfhost.crypto.CryptoExecutor;
+import com.cystack.locker.selfhost.crypto.Pbkdf2;
+import com.cystack.locker.selfhost.crypto.RsaKeyGen;
+import com.cystack.locker.selfhost.crypto.RsaOaep;
 
 
 public class RNCryptoServiceAndroid extends ReactContextBaseJavaModule {
+    public static final String NAME = "RNCryptoServiceAndroid";
+    private static final String E_CANCELLED = "E_CANCELLED";
+    private static final String FILE_PROGRESS_EVENT = "RNCryptoServiceAndroidFileProgress";
+
+    // Key derivation and decryption batches take hundreds of milliseconds, keep them off the native modules thread
+    private final CryptoExecutor executor = CryptoExecutor.getInstance();
+
     RNCryptoServiceAndroid(ReactApplicationContext context) {
         super(context);
     }
     @NonNull
     @Override
     public String getName() {
-        return "RNCryptoServiceAndroid";
+        return NAME;
     }
 
     @ReactMethod
     public void decryptOAEPSHA1(String ecryptedData ,String privateKey, Promise promise) {
+        run("decryptOAEPSHA1", CryptoExecutor.LANE_INTERACTIVE, null, promise,
+                () -> decrypt(ecryptedData, privateKey));
+    }
+
+    /**
+     * PBKDF2-HMAC-SHA256 on a worker thread.
+     * @param password - base64
+     * @param salt - base64
+     * @param options - optional priority ("interactive", "normal", "background") and requestId
+     * @param promise - resolved with the base64 derived key
+     */
+    @ReactMethod
+    public void pbkdf2Sha256(String password, String salt, int iterations, int keyLength,
+                             @Nullable ReadableMap options, Promise promise) {
+        run("pbkdf2Sha256", laneOf(options, CryptoExecutor.LANE_INTERACTIVE), requestIdOf(options), promise, () -> {
+            byte[] key = Pbkdf2.deriveSha256(Base64.getDecoder().decode(password),
+                    Base64.getDecoder().decode(salt), iterations, keyLength);
+            return Base64.getEncoder().encodeToString(key);
+        });
+    }
+
+    /**
+     * Parse and cache an RSA private key for the batch methods.
+     * @param privateKey - base64 PKCS#8
+     * @param promise - resolved with the key handle
+     */
+    @ReactMethod
+    public void importRsaPrivateKey(String privateKey, Promise promise) {
+        run("importRsaPrivateKey", CryptoExecutor.LANE_INTERACTIVE, null, promise,
+                () -> RsaOaep.importKey(Base64.getDecoder().decode(privateKey)));
+    }
+
+    /**
+     * Decrypt many RSA-OAEP (SHA-1) values with one key in a single bridge call.
+     * @param encryptedData - base64 values
+     * @param keyHandle - handle returned by importRsaPrivateKey
+     * @param options - optional priority and requestId
+     * @param promise - resolved with the base64 plaintexts in input order, null for values that failed
+     */
+    @ReactMethod
+    public void decryptOAEPSHA1Batch(ReadableArray encryptedData, String keyHandle, @Nullable ReadableMap options,
+                                     Promise promise) {
+        PrivateKey privateKey = RsaOaep.getKey(keyHandle);
+        if (privateKey == null) {
+            promise.reject("RSA Key Error", "Unknown key handle");
+            return;
+        }
+        int size = encryptedData.size();
+        String[] encrypted = new String[size];
+        for (int i = 0; i < size; i++) {
+            encrypted[i] = encryptedData.isNull(i) ? null : encryptedData.getString(i);
+        }
+        int lane = laneOf(options, CryptoExecutor.LANE_NORMAL);
+        run("decryptOAEPSHA1Batch", lane, requestIdOf(options), promise, () -> {
+            byte[][] values = new byte[size][];
+            for (int i = 0; i < size; i++) {
+                try {
+                    values[i] = encrypted[i] != null ? Base64.getDecoder().decode(encrypted[i]) : null;
+                } catch (IllegalArgumentException e) {
+                    // not base64, fails like an undecryptable value
+                    values[i] = null;
+                }
+            }
+            byte[][] results = RsaOaep.decryptBatch(privateKey, values, executor.lane(lane), CryptoExecutor.PARALLELISM);
+            WritableArray plainTexts = Arguments.createArray();
+            for (byte[] result : results) {
+                if (result == null) {
+                    plainTexts.pushNull();
+                } else {
+                    plainTexts.pushString(Base64.getEncoder().encodeToString(result));
+                }
+            }
+            return plainTexts;
+        });
+    }
+
+    /**
+     * Generate an RSA key pair on a worker thread.
+     * @param options - optional priority and requestId
+     * @param promise - resolved with { publicKey: base64 SPKI, privateKey: base64 PKCS#8 }
+     */
+    @ReactMethod
+    public void generateRsaKeyPair(int bits, @Nullable ReadableMap options, Promise promise) {
+        run("generateRsaKeyPair", laneOf(options, CryptoExecutor.LANE_INTERACTIVE), requestIdOf(options), promise, () -> {
+            byte[][] keyPair = RsaKeyGen.generate(bits);
+            WritableMap result = Arguments.createMap();
+            result.putString("publicKey", Base64.getEncoder().encodeToString(keyPair[0]));
+            result.putString("privateKey", Base64.getEncoder().encodeToString(keyPair[1]));
+            return result;
+        });
+    }
+
+    /**
+     * Cache an AES-CBC key for decryptAesBatch and the file methods.
+     * @param encKey - base64
+     * @param macKey - base64, null for keys without HMAC
+     * @param promise - resolved with the key handle
+     */
+    @ReactMethod
+    public void importAesKey(String encKey, @Nullable String macKey, Promise promise) {
         try {
-            String plainText = decrypt(ecryptedData, privateKey);
-            promise.resolve(plainText);
-        } catch(Exception e) {
-            promise.reject("Create Event Error", e);
+            promise.resolve(AesCbcHmac.importKey(Base64.getDecoder().decode(encKey),
+                    macKey != null ? Base64.getDecoder().decode(macKey) : null));
+        } catch (Exception e) {
+            promise.reject("AES Key Error", e);
         }
     }
 
-    private String decrypt(byte[] data, PrivateKey privateKey) throws NoSuchPaddingException, NoSuchAlgorithmException, InvalidKeyException, BadPaddingException, IllegalBlockSizeException, UnsupportedEncodingException {
-        Cipher cipher = Cipher.getInstance("RSA/ECB/OAEPwithSHA-1andMGF1Padding");
-        cipher.init(Cipher.DECRYPT_MODE, privateKey);
-        return Base64.getEncoder().encodeToString(cipher.doFinal(data));
+    /**
+     * Verify and decrypt many cipher strings with one key in a single bridge call.
+     * @param values - "iv|data|mac" pieces of the cipher strings, base64
+     * @param keyHandle - handle returned by importAesKey
+     * @param options - optional priority and requestId
+     * @param promise - resolved with the UTF-8 plaintexts in input order, null for values that failed
+     */
+    @ReactMethod
+    public void decryptAesBatch(ReadableArray values, String keyHandle, @Nullable ReadableMap options,
+                                Promise promise) {
+        if (!AesCbcHmac.hasKey(keyHandle)) {
+            promise.reject("AES Key Error", "Unknown key handle");
+            return;
+        }
+        int size = values.size();
+        String[] encrypted = new String[size];
+        for (int i = 0; i < size; i++) {
+            encrypted[i] = values.isNull(i) ? null : values.getString(i);
+        }
+        int lane = laneOf(options, CryptoExecutor.LANE_NORMAL);
+        run("decryptAesBatch", lane, requestIdOf(options), promise, () -> {
+            String[] results = AesCbcHmac.decryptBatch(keyHandle, encrypted, executor.lane(lane), CryptoExecutor.PARALLELISM);
+            WritableArray plainTexts = Arguments.createArray();
+            for (String result : results) {
+                if (result == null) {
+                    plainTexts.pushNull();
+                } else {
+                    plainTexts.pushString(result);
+                }
+            }
+            return plainTexts;
+        });
     }
 
-    private String decrypt(String data, String base64PrivateKey) throws IllegalBlockSizeException, InvalidKeyException, BadPaddingException, NoSuchAlgorithmException, NoSuchPaddingException, UnsupportedEncodingException {
-        return decrypt(Base64.getDecoder().decode(data), getPrivateKey(base64PrivateKey));
+    /**
+     * Encrypt a file into the attachment layout (encType | iv | mac | data) without loading it into JS.
+     * Progress is emitted as FILE_PROGRESS_EVENT when options.requestId is set.
+     * @param keyHandle - handle returned by importAesKey
+     * @param encType - encryption type of the key, written as the first byte
+     * @param promise - resolved with the size of the encrypted file
+     */
+    @ReactMethod
+    public void encryptFile(String inputPath, String outputPath, String keyHandle, int encType,
+                            @Nullable ReadableMap options, Promise promise) {
+        String requestId = requestIdOf(options);
+        run("encryptFile", laneOf(options, CryptoExecutor.LANE_NORMAL), requestId, promise, () ->
+                (double) AesCbcHmacFile.encrypt(fileOf(inputPath), fileOf(outputPath), keyHandle, encType,
+                        progressOf(requestId)));
     }
-    private PrivateKey getPrivateKey(String base64PrivateKey){
-        PrivateKey privateKey = null;
-        PKCS8EncodedKeySpec keySpec = new PKCS8EncodedKeySpec(Base64.getDecoder().decode(base64PrivateKey));
-        KeyFactory keyFactory = null;
-        try {
-            keyFactory = KeyFactory.getInstance("RSA");
-        } catch (NoSuchAlgorithmException e) {
-            e.printStackTrace();
+
+    /**
+     * Decrypt a file in the attachment layout. Nothing is written to outputPath unless the mac checks out.
+     * @param keyHandle - handle returned by importAesKey
+     * @param encType - expected encryption type of the file
+     * @param promise - resolved with the size of the decrypted file, -1 when it can't be decrypted with this key
+     */
+    @ReactMethod
+    public void decryptFile(String inputPath, String outputPath, String keyHandle, int encType,
+                            @Nullable ReadableMap options, Promise promise) {
+        String requestId = requestIdOf(options);
+        run("decryptFile", laneOf(options, CryptoExecutor.LANE_NORMAL), requestId, promise, () ->
+                (double) AesCbcHmacFile.decrypt(fileOf(inputPath), fileOf(outputPath), keyHandle, encType,
+                        progressOf(requestId)));
+    }
+
+    @Override
+    public Map<String, Object> getConstants() {
+        final Map<String, Object> constants = new HashMap<>();
+        constants.put("FILE_PROGRESS_EVENT", FILE_PROGRESS_EVENT);
+        return constants;
+    }
+
+    /**
+     * Drop the cached keys and the spare RSA key pairs, on lock and logout. Handles returned before are
+     * unknown afterwards.
+     */
+    @ReactMethod
+    public void clearKeys(Promise promise) {
+        AesCbcHmac.clearKeys();
+        RsaOaep.clearKeys();
+        RsaKeyGen.clearSpares();
+        promise.resolve(null);
+    }
+
+    /**
+     * Cancel an operation started with options.requestId. Its promise is rejected with E_CANCELLED.
+     */
+    @ReactMethod
+    public void cancelOperation(String requestId, Promise promise) {
+        promise.resolve(executor.cancel(requestId));
+    }
+
+    /**
+     * Queue and run time per operation since the last reset, in milliseconds.
+     */
+    @ReactMethod
+    public void getMetrics(boolean reset, Promise promise) {
+        WritableMap result = Arguments.createMap();
+        for (Map.Entry<String, CryptoExecutor.Metrics> entry : executor.getMetrics().entrySet()) {
+            CryptoExecutor.Metrics metrics = entry.getValue();
+            WritableMap operation = Arguments.createMap();
+            operation.putDouble("count", metrics.count);
+            operation.putDouble("failed", metrics.failed);
+            operation.putDouble("cancelled", metrics.cancelled);
+            operation.putDouble("totalQueueMs", metrics.totalQueueMs);
+            operation.putDouble("maxQueueMs", metrics.maxQueueMs);
+            operation.putDouble("totalRunMs", metrics.totalRunMs);
+            operation.putDouble("maxRunMs", metrics.maxRunMs);
+            result.putMap(entry.getKey(), operation);
         }
-        try {
-            privateKey = keyFactory.generatePrivate(keySpec);
-        } catch (InvalidKeySpecException e) {
-            e.printStackTrace();
+        if (reset) {
+            executor.resetMetrics();
         }
-        return privateKey;
+        promise.resolve(result);
     }
 
+    private <T> void run(String operation, int lane, @Nullable String requestId, Promise promise, Callable<T> work) {
+        executor.submit(operation, lane, requestId, work, new CryptoExecutor.Callback<T>() {
+            @Override
+            public void onSuccess(T result) {
+                promise.resolve(result);
+            }
+
+            @Override
+            public void onError(Throwable error) {
+                promise.reject(operation + " Error", error);
+            }
+
+            @Override
+            public void onCancelled() {
+                promise.reject(E_CANCELLED, operation + " cancelled");
+            }
+        });
+    }
+
+    private static int laneOf(@Nullable ReadableMap options, int defaultLane) {
+        if (options == null || !options.hasKey("priority") || options.isNull("priority")) {
+            return defaultLane;
+        }
+        switch (options.getString("priority")) {
+            case "interactive":
+                return CryptoExecutor.LANE_INTERACTIVE;
+            case "background":
+                return CryptoExecutor.LANE_BACKGROUND;
+            case "normal":
+                return CryptoExecutor.LANE_NORMAL;
+            default:
+                return defaultLane;
+        }
+    }
+
+    private static File fileOf(String path) {
+        return new File(path.startsWith("file://") ? path.substring("file://".length()) : path);
+    }
+
+    /**
+     * Emits at most one event per percent, the channels report every chunk.
+     */
+    @Nullable
+    private AesCbcHmacFile.Progress progressOf(@Nullable String requestId) {
+        if (requestId == null) {
+            return null;
+        }
+        final ReactApplicationContext context = getReactApplicationContext();
+        return new AesCbcHmacFile.Progress() {
+            private long lastPercent = -1;
+
+            @Override
+            public void onProgress(long processed, long total) {
+                long percent = total > 0 ? processed * 100 / total : 100;
+                if (percent == lastPercent || !context.hasActiveReactInstance()) {
+                    return;
+                }
+                lastPercent = percent;
+                WritableMap event = Arguments.createMap();
+                event.putString("requestId", requestId);
+                event.putDouble("processed", processed);
+                event.putDouble("total", total);
+                context.getJSModule(DeviceEventManagerModule.RCTDeviceEventEmitter.class)
+                        .emit(FILE_PROGRESS_EVENT, event);
+            }
+        };
+    }
+
+    @Nullable
+    private static String requestIdOf(@Nullable ReadableMap options) {
+        if (options == null || !options.hasKey("requestId") || options.isNull("requestId")) {
+            return null;
+        }
+        return options.getString("requestId");
+    }
+
+    private String decrypt(String data, String base64PrivateKey) throws GeneralSecurityException {
+        String handle = RsaOaep.importKey(Base64.getDecoder().decode(base64PrivateKey));
+        PrivateKey privateKey = RsaOaep.getKey(handle);
+        if (privateKey == null) {
+            throw new InvalidKeyException("Key evicted");
+        }
+        return Base64.getEncoder().encodeToString(RsaOaep.decrypt(privateKey, Base64.getDecoder().decode(data)));
+    }
 }
@@ -9,6 +9,7 @@ import com.facebook.react.bridge.ReactMethod;
 import com.facebook.react.bridge.Callback;
 
 public class RNManufacturerSettingsAndroid extends ReactContextBaseJavaModule {
+    public static final String NAME = "RNManufacturerSettings";
 
     private final ReactApplicationContext reactContext;
 
@@ -19,7 +20,7 @@ public class RNManufacturerSettingsAndroid extends ReactContextBaseJavaModule {
   
     @Override
     public String getName() {
-      return "RNManufacturerSettings";
+      return NAME;
     }
 
     private void startActivityForResult(Intent intent) {
@@ -1,30 +1,81 @@
 package com.cystack.locker.selfhost;
-import com.facebook.react.ReactPackage;
+import android.os.Process;
+import android.os.SystemClock;
+import android.os.Trace;
+import android.util.Log;
+
+import androidx.annotation.Nullable;
+
+import com.facebook.react.TurboReactPackage;
 import com.facebook.react.bridge.NativeModule;
 import com.facebook.react.bridge.ReactApplicationContext;
-import com.facebook.react.uimanager.ViewManager;
+import com.facebook.react.module.model.ReactModuleInfo;
+import com.facebook.react.module.model.ReactModuleInfoProvider;
 
-import java.util.ArrayList;
-import java.util.Collections;
-import java.util.List;
+import java.util.HashMap;
+import java.util.Map;
 
 
-public class RNPacketsManager implements ReactPackage {
+/**
+ * The app's own native modules, created on first use from JS instead of on every React start: a launch
+ * that only saves a login never builds the crypto module. The module infos are known upfront, so the
+ * bridge and the new architecture can register them without instantiating anything.
+ *
+ * Each creation is traced as "Locker.createModule.NAME" and, in debug builds, logged with the time
+ * since the process started (tag LockerStartup) for the startup benchmark.
+ */
+public class RNPacketsManager extends TurboReactPackage {
+    private static final String TAG = "LockerStartup";
 
+    @Nullable
     @Override
-    public List<ViewManager> createViewManagers(ReactApplicationContext reactContext) {
-        return Collections.emptyList();
+    public NativeModule getModule(String name, ReactApplicationContext reactContext) {
+        long startedAt = SystemClock.elapsedRealtimeNanos();
+        Trace.beginSection("Locker.createModule." + name);
+        try {
+            switch (name) {
+                case RNCryptoServiceAndroid.NAME:
+                    return new RNCryptoServiceAndroid(reactContext);
+                case RNAutofillServiceAndroid.NAME:
+                    return new RNAutofillServiceAndroid(reactContext);
+                case RNManufacturerSettingsAndroid.NAME:
+                    return new RNManufacturerSettingsAndroid(reactContext);
+                default:
+                    return null;
+            }
+        } finally {
+            Trace.endSection();
+            if (BuildConfig.DEBUG) {
+                long now = SystemClock.elapsedRealtimeNanos();
+                Log.d(TAG, "created " + name + " in " + (now - startedAt) / 1000 + "us, "
+                        + (SystemClock.elapsedRealtime() - Process.getStartElapsedRealtime()) + "ms after start");
+            }
+        }
     }
 
     @Override
-    public List<NativeModule> createNativeModules(
-            ReactApplicationContext reactContext) {
-        List<NativeModule> modules = new ArrayList<>();
-
-        modules.add(new RNCryptoServiceAndroid(reactContext));
-        modules.add(new RNAutofillServiceAndroid(reactContext));
-        modules.add(new RNManufacturerSettingsAndroid(reactContext));
-        return modules;
+    public ReactModuleInfoProvider getReactModuleInfoProvider() {
+        return () -> {
+            Map<String, ReactModuleInfo> moduleInfos = new HashMap<>();
+            moduleInfos.put(RNCryptoServiceAndroid.NAME, moduleInfo(RNCryptoServiceAndroid.NAME,
+                    RNCryptoServiceAndroid.class, true));
+            moduleInfos.put(RNAutofillServiceAndroid.NAME, moduleInfo(RNAutofillServiceAndroid.NAME,
+                    RNAutofillServiceAndroid.class, false));
+            moduleInfos.put(RNManufacturerSettingsAndroid.NAME, moduleInfo(RNManufacturerSettingsAndroid.NAME,
+                    RNManufacturerSettingsAndroid.class, false));
+            return moduleInfos;
+        };
     }
 
-}
\ No newline at end of file
+    private static ReactModuleInfo moduleInfo(String name, Class<? extends NativeModule> moduleClass,
+            boolean hasConstants) {
+        return new ReactModuleInfo(
+                name,
+                moduleClass.getName(),
+                false, // canOverrideExistingModule
+                false, // needsEagerInit
+                hasConstants,
+                false, // isCxxModule
+                false); // isTurboModule
+    }
+}
@@ -0,0 +1,69 @@
+package com.cystack.locker.selfhost;
+
+import android.content.ContentProvider;
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.net.Uri;
+import android.os.Bundle;
+import android.os.Handler;
+import android.os.Looper;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+/**
+ * Entry point of the app process for the autofill service, which runs in its own process. Only
+ * {@link #call} is used: "prewarm" starts creating the React context, see MainApplication#prewarmReact.
+ */
+public class ReactPrewarmProvider extends ContentProvider {
+    public static final String AUTHORITY = BuildConfig.APPLICATION_ID + ".prewarm";
+    public static final String METHOD_PREWARM = "prewarm";
+
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+
+    @Override
+    public boolean onCreate() {
+        return true;
+    }
+
+    @Nullable
+    @Override
+    public Bundle call(@NonNull String method, @Nullable String arg, @Nullable Bundle extras) {
+        if (METHOD_PREWARM.equals(method)) {
+            MainApplication application = (MainApplication) getContext().getApplicationContext();
+            // the React instance manager is only driven from the main thread
+            mainHandler.post(application::prewarmReact);
+        }
+        return null;
+    }
+
+    @Nullable
+    @Override
+    public Cursor query(@NonNull Uri uri, @Nullable String[] projection, @Nullable String selection,
+            @Nullable String[] selectionArgs, @Nullable String sortOrder) {
+        return null;
+    }
+
+    @Nullable
+    @Override
+    public String getType(@NonNull Uri uri) {
+        return null;
+    }
+
+    @Nullable
+    @Override
+    public Uri insert(@NonNull Uri uri, @Nullable ContentValues values) {
+        return null;
+    }
+
+    @Override
+    public int delete(@NonNull Uri uri, @Nullable String selection, @Nullable String[] selectionArgs) {
+        return 0;
+    }
+
+    @Override
+    public int update(@NonNull Uri uri, @Nullable ContentValues values, @Nullable String selection,
+            @Nullable String[] selectionArgs) {
+        return 0;
+    }
+}
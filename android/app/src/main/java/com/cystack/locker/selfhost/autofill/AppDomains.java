@@ -0,0 +1,225 @@
+package com.cystack.locker.selfhost.autofill;
+
+import android.content.Context;
+import android.content.pm.PackageInfo;
+import android.content.pm.PackageManager;
+import android.content.pm.Signature;
+import android.content.res.AssetFileDescriptor;
+import android.os.Build;
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Websites of native apps: an androidapp://package fill request also matches the credentials saved for
+ * these domains, see CredentialIndex#lookupKeysOf. A package name proves nothing, anyone can install
+ * an app under it, so the domains are only returned when the installed app is signed with one of the
+ * certificates the table lists for it.
+ *
+ * The table is compiled at build time by the compileAppDomains task (android/app/autofill-assets.gradle)
+ * from android/app/autofill/app_domains.txt and memory-mapped from the assets. It isn't built while no
+ * app of the list has reviewed certificates, then no app has domains.
+ *
+ * Layout, big endian:
+ * <pre>
+ * header        magic, version, entry/bucket counts, entries/domains/certificates/strings offsets (HEADER_SIZE bytes)
+ * bucket table  (bucketCount + 1) ints, first entry of each bucket
+ * entries       entryCount x (int package hash, int package string, int first domain, int domain count,
+ *               int first certificate, int certificate count)
+ * domains       int string offset of each domain
+ * certificates  SHA-256 digests of the signing certificates (DIGEST_SIZE bytes each)
+ * strings       ubyte length + ASCII bytes
+ * </pre>
+ * Entries are grouped by bucket (String#hashCode of the package modulo bucketCount) and sorted by package
+ * within a bucket, a lookup reads one bucket.
+ */
+public class AppDomains {
+    private static final String TAG = "AppDomains";
+    private static final String ASSET = "app_domains.table";
+
+    private static final int MAGIC = 0x4C4B4144; // "LKAD"
+    private static final int VERSION = 2;
+    private static final int HEADER_SIZE = 32;
+    private static final int ENTRY_SIZE = 24;
+    private static final int DIGEST_SIZE = 32;
+
+    private static Context appContext;
+    private static AppDomains instance;
+    private static boolean loaded;
+
+    private final ByteBuffer buffer;
+    private final int entryCount;
+    private final int bucketCount;
+    private final int entriesOffset;
+    private final int domainsOffset;
+    private final int certificatesOffset;
+    private final int stringsOffset;
+
+    AppDomains(@NonNull ByteBuffer buffer) throws IOException {
+        if (buffer.limit() < HEADER_SIZE || buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION) {
+            throw new IOException("Unknown app domains format");
+        }
+        this.buffer = buffer;
+        this.entryCount = buffer.getInt(8);
+        this.bucketCount = buffer.getInt(12);
+        this.entriesOffset = buffer.getInt(16);
+        this.domainsOffset = buffer.getInt(20);
+        this.certificatesOffset = buffer.getInt(24);
+        this.stringsOffset = buffer.getInt(28);
+        if (bucketCount < 1 || entryCount < 0 || entriesOffset != HEADER_SIZE + 4 * (bucketCount + 1)
+                || domainsOffset != entriesOffset + ENTRY_SIZE * entryCount
+                || certificatesOffset < domainsOffset || stringsOffset < certificatesOffset
+                || (stringsOffset - certificatesOffset) % DIGEST_SIZE != 0 || stringsOffset > buffer.limit()) {
+            throw new IOException("Truncated app domains");
+        }
+    }
+
+    /**
+     * Called from Application.onCreate of every process, the table is only mapped on the first lookup.
+     */
+    public static synchronized void init(@NonNull Context context) {
+        appContext = context.getApplicationContext();
+    }
+
+    @Nullable
+    public static synchronized AppDomains get() {
+        if (!loaded && appContext != null) {
+            loaded = true;
+            try (AssetFileDescriptor fd = appContext.getAssets().openFd(ASSET);
+                 FileInputStream in = fd.createInputStream();
+                 FileChannel channel = in.getChannel()) {
+                instance = new AppDomains(
+                        channel.map(FileChannel.MapMode.READ_ONLY, fd.getStartOffset(), fd.getLength()));
+            } catch (FileNotFoundException e) {
+                Log.i(TAG, "No " + ASSET);
+            } catch (IOException e) {
+                Log.e(TAG, "Cannot map " + ASSET, e);
+            }
+        }
+        return instance;
+    }
+
+    /**
+     * @return the domains of the app, empty when the package is unknown or the installed app isn't signed
+     * with a certificate of the table
+     */
+    @NonNull
+    public List<String> find(@NonNull String packageName) {
+        int hash = packageName.hashCode();
+        int bucket = (hash & 0x7FFFFFFF) % bucketCount;
+        int first = buffer.getInt(HEADER_SIZE + 4 * bucket);
+        int last = buffer.getInt(HEADER_SIZE + 4 * (bucket + 1));
+        for (int entry = first; entry < last; entry++) {
+            int base = entriesOffset + entry * ENTRY_SIZE;
+            if (buffer.getInt(base) != hash || !stringEquals(buffer.getInt(base + 4), packageName)) {
+                continue;
+            }
+            if (!isSignedBy(packageName, buffer.getInt(base + 16), buffer.getInt(base + 20))) {
+                Log.w(TAG, packageName + " isn't signed by its listed certificates");
+                return Collections.emptyList();
+            }
+            int firstDomain = buffer.getInt(base + 8);
+            int domainCount = buffer.getInt(base + 12);
+            ArrayList<String> domains = new ArrayList<>(domainCount);
+            for (int i = 0; i < domainCount; i++) {
+                domains.add(readString(buffer.getInt(domainsOffset + 4 * (firstDomain + i))));
+            }
+            return domains;
+        }
+        return Collections.emptyList();
+    }
+
+    /**
+     * Whether the installed package is signed with one of the listed certificates. From Android P the
+     * platform compares the digests, signing key rotation included; before, every signer of the app has
+     * to be listed.
+     */
+    private boolean isSignedBy(String packageName, int firstCertificate, int certificateCount) {
+        Context context = appContext;
+        if (context == null || certificateCount <= 0) {
+            return false;
+        }
+        PackageManager packageManager = context.getPackageManager();
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.P) {
+            for (int i = 0; i < certificateCount; i++) {
+                if (packageManager.hasSigningCertificate(packageName, readDigest(firstCertificate + i),
+                        PackageManager.CERT_INPUT_SHA256)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+        try {
+            @SuppressWarnings("deprecation")
+            PackageInfo info = packageManager.getPackageInfo(packageName, PackageManager.GET_SIGNATURES);
+            if (info.signatures == null || info.signatures.length == 0) {
+                return false;
+            }
+            MessageDigest sha256 = MessageDigest.getInstance("SHA-256");
+            for (Signature signature : info.signatures) {
+                if (!isListed(sha256.digest(signature.toByteArray()), firstCertificate, certificateCount)) {
+                    return false;
+                }
+            }
+            return true;
+        } catch (PackageManager.NameNotFoundException e) {
+            return false;
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private boolean isListed(byte[] digest, int firstCertificate, int certificateCount) {
+        for (int i = 0; i < certificateCount; i++) {
+            if (MessageDigest.isEqual(digest, readDigest(firstCertificate + i))) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private byte[] readDigest(int certificate) {
+        byte[] digest = new byte[DIGEST_SIZE];
+        int position = certificatesOffset + certificate * DIGEST_SIZE;
+        for (int i = 0; i < DIGEST_SIZE; i++) {
+            digest[i] = buffer.get(position + i);
+        }
+        return digest;
+    }
+
+    private boolean stringEquals(int offset, String value) {
+        int position = stringsOffset + offset;
+        int length = buffer.get(position) & 0xFF;
+        if (length != value.length()) {
+            return false;
+        }
+        for (int i = 0; i < length; i++) {
+            if ((buffer.get(position + 1 + i) & 0xFF) != value.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private String readString(int offset) {
+        int position = stringsOffset + offset;
+        byte[] bytes = new byte[buffer.get(position) & 0xFF];
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = buffer.get(position + 1 + i);
+        }
+        return new String(bytes, StandardCharsets.US_ASCII);
+    }
+}
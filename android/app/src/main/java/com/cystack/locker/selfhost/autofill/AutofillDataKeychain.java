@@ -2,32 +2,44 @@ package com.cystack.locker.selfhost.autofill;
 
 
 
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.util.Base64;
+import android.util.JsonReader;
+import android.util.JsonToken;
 import android.util.Log;
 
+import androidx.annotation.Nullable;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.util.ArrayList;
-import java.util.HashMap;
-import java.util.Iterator;
-import java.util.List;
-import java.util.Map;
 
-import com.oblador.keychain.PrefsStorage;
 import com.oblador.keychain.SecurityLevel;
 import com.oblador.keychain.cipherStorage.CipherStorage;
 import com.oblador.keychain.cipherStorage.CipherStorageKeystoreAesCbc;
 
-import com.facebook.react.bridge.ReactApplicationContext;
-
-import org.json.JSONArray;
-import org.json.JSONException;
-import org.json.JSONObject;
-
-
 
 public class AutofillDataKeychain {
     private static final String TAG = "LockerAutoFillService";
     private static final String service = "W7S57TNBH5.com.cystack.locker.selfhost";
 
-   private final PrefsStorage prefsStorage;
+    // Layout of react-native-keychain's PrefsStorage, read directly so no React context is needed
+    private static final String KEYCHAIN_DATA = "RN_KEYCHAIN";
+    private static final String USERNAME_KEY = service + ":u";
+    private static final String PASSWORD_KEY = service + ":p";
+
+    // stat of the keychain file the cached source hash was computed for, see getSourceHash
+    private static long sourceModified = -1;
+    private static long sourceLength = -1;
+    @Nullable
+    private static byte[] sourceHashCache;
+
+   private final SharedPreferences prefs;
    private final CipherStorage cipherStorage;
 
     // Data used by autofill service
@@ -42,12 +54,17 @@ public class AutofillDataKeychain {
     public boolean isDarkTheme = false;
 
     public ArrayList<AutofillItem> passwords = new ArrayList<>();
+    // Filled while the payload is read, no second pass over the vault is needed
+    public final CredentialIndex index = new CredentialIndex(0);
+    // Fingerprint of the keychain entry the data was read from, see getSourceHash
+    @Nullable
+    public byte[] sourceHash;
     // public ArrayList<AutofillItem> otherCredentials = new ArrayList<>();
 
 
-    public AutofillDataKeychain(ReactApplicationContext reactContext) {
+    public AutofillDataKeychain(Context context) {
         cipherStorage = new CipherStorageKeystoreAesCbc();
-        prefsStorage = new PrefsStorage(reactContext);
+        prefs = openPrefs(context);
         getAutoFillEntriesForDomain();
     }
 
@@ -59,86 +76,187 @@ public class AutofillDataKeychain {
     public void getAutoFillEntriesForDomain() {
         try {
             String itemString = getAutoFillItems();
-            Log.d(TAG, itemString);
             if (itemString == null){
                 return;
             }
-            JSONObject jsonObject = new JSONObject(itemString);
-            JSONArray jsonArray  = jsonObject.getJSONArray("passwords");
-            List<Object> itemList = toList(jsonArray);
-            for (Object item: itemList) {
-                if (item instanceof HashMap) {
-                    HashMap map = (HashMap) item;
-                    String username = (String) map.get("username");
-                    String password = (String) map.get("password");
-                    String uri = (String) map.get("uri");
-                    String name = (String) map.get("name");
-                    String id = (String) map.get("id");
-
-                    this.passwords.add(new AutofillItem(id, username, password, name, uri));
-                };
-            };
-            this.email = jsonObject.getString("email");
-            this.hashPass = jsonObject.getString("hashPass");
-            this.avatar = jsonObject.getString("avatar");
-            this.language = jsonObject.getString("language");
-            this.faceIdEnabled = jsonObject.getBoolean("faceIdEnabled");
-            this.isLoggedInPw = jsonObject.getBoolean("isLoggedInPw");
-            this.isDarkTheme = jsonObject.getBoolean("isDarkTheme");
-
+            // Stream the payload so every password is only held once, by its AutofillItem
+            try (JsonReader reader = new JsonReader(new StringReader(itemString))) {
+                readVault(reader);
+            }
         } catch (Exception ex) {
-            Log.e(TAG, ex.getMessage());
+            Log.e(TAG, String.valueOf(ex.getMessage()));
         }
     }
-    private String getAutoFillItems() throws Exception {
-        PrefsStorage.ResultSet resultSet = prefsStorage.getEncryptedEntry(service);
-        if (resultSet == null) {
-            Log.e(TAG, "No entry found");
-            return "[]";
+
+    private void readVault(JsonReader reader) throws IOException {
+        if (reader.peek() != JsonToken.BEGIN_OBJECT) {
+            // "[]" when there is no keychain entry
+            reader.skipValue();
+            return;
+        }
+        reader.beginObject();
+        while (reader.hasNext()) {
+            switch (reader.nextName()) {
+                case "passwords":
+                    readPasswords(reader);
+                    break;
+                case "email":
+                    this.email = nextString(reader);
+                    break;
+                case "hashPass":
+                    this.hashPass = nextString(reader);
+                    break;
+                case "avatar":
+                    this.avatar = nextString(reader);
+                    break;
+                case "language":
+                    this.language = nextString(reader);
+                    break;
+                case "faceIdEnabled":
+                    this.faceIdEnabled = nextBoolean(reader);
+                    break;
+                case "isLoggedInPw":
+                    this.isLoggedInPw = nextBoolean(reader);
+                    break;
+                case "isDarkTheme":
+                    this.isDarkTheme = nextBoolean(reader);
+                    break;
+                default:
+                    reader.skipValue();
+            }
         }
+        reader.endObject();
+    }
 
-        CipherStorage.DecryptionResult decryptionResult = cipherStorage.decrypt(service, resultSet.username, resultSet.password, SecurityLevel.ANY);
-        return decryptionResult.password;
+    private void readPasswords(JsonReader reader) throws IOException {
+        if (reader.peek() != JsonToken.BEGIN_ARRAY) {
+            reader.skipValue();
+            return;
+        }
+        reader.beginArray();
+        while (reader.hasNext()) {
+            if (reader.peek() != JsonToken.BEGIN_OBJECT) {
+                reader.skipValue();
+                continue;
+            }
+            String id = null;
+            String username = null;
+            String password = null;
+            String name = null;
+            String uri = null;
+            reader.beginObject();
+            while (reader.hasNext()) {
+                switch (reader.nextName()) {
+                    case "id":
+                        id = nextString(reader);
+                        break;
+                    case "username":
+                        username = nextString(reader);
+                        break;
+                    case "password":
+                        password = nextString(reader);
+                        break;
+                    case "name":
+                        name = nextString(reader);
+                        break;
+                    case "uri":
+                        uri = nextString(reader);
+                        break;
+                    default:
+                        reader.skipValue();
+                }
+            }
+            reader.endObject();
+
+            AutofillItem item = new AutofillItem(id, username, password, name, uri);
+            this.passwords.add(item);
+            this.index.add(item);
+        }
+        reader.endArray();
     }
 
-    private void setItem(String key, String value) throws Exception {
-       CipherStorage.EncryptionResult result = cipherStorage.encrypt(service, key, value, SecurityLevel.ANY);
-       prefsStorage.storeEncryptedEntry(service, result);
+    @Nullable
+    private static String nextString(JsonReader reader) throws IOException {
+        JsonToken token = reader.peek();
+        if (token == JsonToken.NULL) {
+            reader.nextNull();
+            return null;
+        }
+        if (token != JsonToken.STRING && token != JsonToken.NUMBER) {
+            reader.skipValue();
+            return null;
+        }
+        return reader.nextString();
     }
 
-    public static Map<String, Object> toMap(JSONObject object) throws JSONException {
-        Map<String, Object> map = new HashMap<String, Object>();
+    private static boolean nextBoolean(JsonReader reader) throws IOException {
+        if (reader.peek() != JsonToken.BOOLEAN) {
+            reader.skipValue();
+            return false;
+        }
+        return reader.nextBoolean();
+    }
 
-        Iterator<String> keysItr = object.keys();
-        while(keysItr.hasNext()) {
-            String key = keysItr.next();
-            Object value = object.get(key);
+    private String getAutoFillItems() throws Exception {
+        String encodedUsername = prefs.getString(USERNAME_KEY, null);
+        String encodedPassword = prefs.getString(PASSWORD_KEY, null);
+        if (encodedUsername == null || encodedPassword == null) {
+            Log.e(TAG, "No entry found");
+            return "[]";
+        }
+        this.sourceHash = hashSource(encodedUsername, encodedPassword);
+        byte[] username = Base64.decode(encodedUsername, Base64.DEFAULT);
+        byte[] password = Base64.decode(encodedPassword, Base64.DEFAULT);
 
-            if(value instanceof JSONArray) {
-                value = toList((JSONArray) value);
-            }
+        CipherStorage.DecryptionResult decryptionResult = cipherStorage.decrypt(service, username, password, SecurityLevel.ANY);
+        return decryptionResult.password;
+    }
 
-            else if(value instanceof JSONObject) {
-                value = toMap((JSONObject) value);
-            }
-            map.put(key, value);
+    /**
+     * Fingerprint of the encrypted keychain entry, it changes whenever the app saves the vault again,
+     * signs out included. The app writes the entry from its own process: the hash is computed again
+     * whenever the file changed, otherwise it costs a stat.
+     * @return null when there is no entry
+     */
+    @Nullable
+    public static synchronized byte[] getSourceHash(Context context) {
+        File file = getFile(context);
+        long modified = file.lastModified();
+        long length = file.length();
+        if (modified == sourceModified && length == sourceLength) {
+            return sourceHashCache;
         }
-        return map;
+        SharedPreferences prefs = openPrefs(context);
+        String username = prefs.getString(USERNAME_KEY, null);
+        String password = prefs.getString(PASSWORD_KEY, null);
+        sourceHashCache = username == null || password == null ? null : hashSource(username, password);
+        sourceModified = modified;
+        sourceLength = length;
+        return sourceHashCache;
     }
 
-    public static List<Object> toList(JSONArray array) throws JSONException {
-        List<Object> list = new ArrayList<Object>();
-        for(int i = 0; i < array.length(); i++) {
-            Object value = array.get(i);
-            if(value instanceof JSONArray) {
-                value = toList((JSONArray) value);
-            }
+    /**
+     * SharedPreferences are cached per process and never reloaded when another process writes the file,
+     * MODE_MULTI_PROCESS reloads them when its modification time or size changed.
+     */
+    @SuppressWarnings("deprecation")
+    private static SharedPreferences openPrefs(Context context) {
+        return context.getSharedPreferences(KEYCHAIN_DATA, Context.MODE_MULTI_PROCESS);
+    }
 
-            else if(value instanceof JSONObject) {
-                value = toMap((JSONObject) value);
-            }
-            list.add(value);
+    private static File getFile(Context context) {
+        return new File(new File(context.getDataDir(), "shared_prefs"), KEYCHAIN_DATA + ".xml");
+    }
+
+    private static byte[] hashSource(String username, String password) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            digest.update(username.getBytes(StandardCharsets.UTF_8));
+            digest.update((byte) 0);
+            digest.update(password.getBytes(StandardCharsets.UTF_8));
+            return digest.digest();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
         }
-        return list;
     }
 }
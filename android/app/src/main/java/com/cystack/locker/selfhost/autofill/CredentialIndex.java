@@ -0,0 +1,185 @@
+package com.cystack.locker.selfhost.autofill;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * In-memory index of the autofill vault.
+ * Every credential is keyed by its host, its registrable domain (eTLD+1) and, for native
+ * apps, its androidapp:// package, so a fill request resolves its matches with hash lookups
+ * no matter how large the vault is. A native app also matches the websites {@link AppDomains} knows for it.
+ */
+public class CredentialIndex implements CredentialSource {
+    public static final String ANDROID_APP_SCHEME = "androidapp://";
+
+    static final String HOST_KEY = "h:";
+    static final String DOMAIN_KEY = "d:";
+    static final String APP_KEY = "a:";
+
+    private final HashMap<String, ArrayList<AutofillItem>> byKey;
+    private final HashMap<String, AutofillItem> byId;
+
+    public CredentialIndex(int expectedSize) {
+        byKey = new HashMap<>(Math.max(16, expectedSize * 2));
+        byId = new HashMap<>(Math.max(16, expectedSize));
+    }
+
+    public static CredentialIndex build(@NonNull List<AutofillItem> items) {
+        CredentialIndex index = new CredentialIndex(items.size());
+        for (AutofillItem item : items) {
+            index.add(item);
+        }
+        return index;
+    }
+
+    public void add(@NonNull AutofillItem item) {
+        if (item.getId() != null) {
+            byId.put(item.getId(), item);
+        }
+        for (String key : keysOf(item.getUri())) {
+            put(key, item);
+        }
+    }
+
+    /**
+     * Every lookup key a credential saved for the uri is reachable by.
+     */
+    @NonNull
+    static List<String> keysOf(@Nullable String uri) {
+        if (Utils.isNullOrWhiteSpace(uri)) {
+            return Collections.emptyList();
+        }
+        String packageName = getAndroidAppPackage(uri);
+        if (packageName != null) {
+            return Collections.singletonList(APP_KEY + packageName);
+        }
+        String host = Utils.getHost(uri);
+        if (host == null) {
+            return Collections.emptyList();
+        }
+        String domain = Utils.getRegistrableDomain(host);
+        if (domain == null) {
+            return Collections.singletonList(HOST_KEY + host);
+        }
+        return Arrays.asList(HOST_KEY + host, DOMAIN_KEY + domain);
+    }
+
+    /**
+     * The keys a fill request for the uri looks up, in match order: its own keys, then for a native app
+     * the registrable domains of its websites, see {@link AppDomains}.
+     */
+    @NonNull
+    static List<String> lookupKeysOf(@Nullable String uri) {
+        List<String> keys = keysOf(uri);
+        if (keys.size() != 1 || !keys.get(0).startsWith(APP_KEY)) {
+            return keys;
+        }
+        AppDomains appDomains = AppDomains.get();
+        if (appDomains == null) {
+            return keys;
+        }
+        List<String> domains = appDomains.find(keys.get(0).substring(APP_KEY.length()));
+        if (domains.isEmpty()) {
+            return keys;
+        }
+        ArrayList<String> lookupKeys = new ArrayList<>(1 + domains.size());
+        lookupKeys.addAll(keys);
+        for (String domain : domains) {
+            String registrable = Utils.getRegistrableDomain(domain);
+            if (registrable != null && !lookupKeys.contains(DOMAIN_KEY + registrable)) {
+                lookupKeys.add(DOMAIN_KEY + registrable);
+            }
+        }
+        return lookupKeys;
+    }
+
+    private void put(String key, AutofillItem item) {
+        ArrayList<AutofillItem> items = byKey.get(key);
+        if (items == null) {
+            items = new ArrayList<>(1);
+            byKey.put(key, items);
+        }
+        items.add(item);
+    }
+
+    @Override
+    @NonNull
+    public List<AutofillItem> find(@Nullable String uri) {
+        if (Utils.isNullOrWhiteSpace(uri)) {
+            return Collections.emptyList();
+        }
+        String packageName = getAndroidAppPackage(uri);
+        if (packageName != null) {
+            // the app's own credentials first, then the ones of its websites
+            ArrayList<AutofillItem> matches = new ArrayList<>();
+            Set<AutofillItem> seen = Collections.newSetFromMap(new IdentityHashMap<>());
+            for (String key : lookupKeysOf(uri)) {
+                List<AutofillItem> items = byKey.get(key);
+                if (items == null) {
+                    continue;
+                }
+                for (AutofillItem item : items) {
+                    if (seen.add(item)) {
+                        matches.add(item);
+                    }
+                }
+            }
+            return matches;
+        }
+        String host = Utils.getHost(uri);
+        if (host == null) {
+            return Collections.emptyList();
+        }
+        ArrayList<AutofillItem> matches = new ArrayList<>();
+        List<AutofillItem> hostItems = byKey.get(HOST_KEY + host);
+        if (hostItems != null) {
+            matches.addAll(hostItems);
+        }
+        String domain = Utils.getRegistrableDomain(host);
+        List<AutofillItem> domainItems = domain != null ? byKey.get(DOMAIN_KEY + domain) : null;
+        if (domainItems != null) {
+            for (AutofillItem item : domainItems) {
+                // host matches are already in the list
+                if (hostItems == null || !host.equals(Utils.getHost(item.getUri()))) {
+                    matches.add(item);
+                }
+            }
+        }
+        return matches;
+    }
+
+    @Override
+    @Nullable
+    public AutofillItem findById(@Nullable String id) {
+        if (id == null) {
+            return null;
+        }
+        return byId.get(id);
+    }
+
+    @Override
+    public int size() {
+        return byId.size();
+    }
+
+    @Nullable
+    static String getAndroidAppPackage(@NonNull String uri) {
+        if (uri.regionMatches(true, 0, ANDROID_APP_SCHEME, 0, ANDROID_APP_SCHEME.length())) {
+            String packageName = uri.substring(ANDROID_APP_SCHEME.length()).trim();
+            int end = packageName.indexOf('/');
+            if (end >= 0) {
+                packageName = packageName.substring(0, end);
+            }
+            return packageName.isEmpty() ? null : packageName;
+        }
+        return null;
+    }
+}
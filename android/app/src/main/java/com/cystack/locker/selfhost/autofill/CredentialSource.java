@@ -0,0 +1,25 @@
+package com.cystack.locker.selfhost.autofill;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.util.List;
+
+/**
+ * Lookup side of the autofill vault, either held in memory or read from the on-disk snapshot.
+ */
+public interface CredentialSource {
+    /**
+     * Find every credential matching the uri of a fill request.
+     * Exact host matches come first, followed by the other hosts of the same registrable domain.
+     * A native app matches its own credentials first, followed by the ones of its websites.
+     * @param uri - either http(s)://host or androidapp://package as built by Parser.Result
+     */
+    @NonNull
+    List<AutofillItem> find(@Nullable String uri);
+
+    @Nullable
+    AutofillItem findById(@Nullable String id);
+
+    int size();
+}
@@ -30,19 +30,36 @@ public class Field implements Parcelable {
     public int autofillType;
 
     public Field(AssistStructure.ViewNode node) {
+        this(node, node.getAutofillHints());
+    }
+
+    /**
+     * Build a field from a view node whose autofill hints were already read by the caller,
+     * so every node attribute is fetched only once during traversal.
+     */
+    public Field(AssistStructure.ViewNode node, String[] hints) {
         this.autofillId = node.getAutofillId();
         this.hint = node.getHint();
         if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.R) {
             this.idHint = node.getHintIdEntry();
         }
-        this.entry = node.getIdEntry();
         this.idEntry = node.getIdEntry();
-        if (node.getText() != null) {
-            this.text = node.getText().toString();
+        this.entry = this.idEntry;
+        CharSequence nodeText = node.getText();
+        if (nodeText != null) {
+            this.text = nodeText.toString();
         }
         this.inputType = node.getInputType();
         this.autofillType = node.getAutofillType();
-        this.hints = node.getAutofillHints();
+        this.hints = hints;
+    }
+
+    /**
+     * Field reduced to what a dataset needs, e.g. for the fields kept by {@link FillSessions}.
+     */
+    public Field(AutofillId autofillId, int fillType) {
+        this.autofillId = autofillId;
+        this.fillType = fillType;
     }
 
     protected Field(Parcel in) {
@@ -0,0 +1,174 @@
+package com.cystack.locker.selfhost.autofill;
+
+import android.content.Context;
+
+import androidx.annotation.NonNull;
+
+import com.tencent.mmkv.MMKV;
+
+import java.nio.ByteBuffer;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Rolling latency histograms of the fill request phases, persisted in MMKV so they survive the
+ * service being killed and can be read from the app for diagnostics.
+ *
+ * Buckets are powers of two in milliseconds, the last one is open ended. Once a phase has
+ * WINDOW samples every count, the total and the max are halved, so older requests weigh less and
+ * nothing grows unbounded.
+ */
+public class FillLatency {
+    private static final String MMKV_ID = "autofill_latency";
+    private static final String KEY_PREFIX = "h.";
+    private static final int WINDOW = 512;
+    // upper bounds in ms, one more bucket for everything above
+    public static final int[] BUCKET_BOUNDS_MS = {1, 2, 4, 8, 16, 32, 64, 128, 256, 512, 1024, 2048};
+
+    private static MMKV kv;
+    // only used when MMKV could not be opened
+    private static final Map<String, Histogram> histograms = new LinkedHashMap<>();
+
+    public static class Histogram {
+        public int count;
+        public long totalMicros;
+        public long maxMicros;
+        public final int[] buckets = new int[BUCKET_BOUNDS_MS.length + 1];
+
+        void add(long micros) {
+            long ms = micros / 1000;
+            int bucket = 0;
+            while (bucket < BUCKET_BOUNDS_MS.length && ms >= BUCKET_BOUNDS_MS[bucket]) {
+                bucket++;
+            }
+            buckets[bucket]++;
+            count++;
+            totalMicros += micros;
+            maxMicros = Math.max(maxMicros, micros);
+            if (count >= WINDOW) {
+                count = 0;
+                for (int i = 0; i < buckets.length; i++) {
+                    buckets[i] /= 2;
+                    count += buckets[i];
+                }
+                totalMicros /= 2;
+                // an old outlier fades out like the counts, a newer sample above it replaces it
+                maxMicros /= 2;
+            }
+        }
+
+        /**
+         * Upper bound in ms of the bucket holding the given quantile, -1 when it is the open ended one,
+         * 0 when there is no sample.
+         */
+        public int quantileMs(double quantile) {
+            if (count == 0) {
+                return 0;
+            }
+            int target = (int) Math.ceil(count * quantile);
+            int seen = 0;
+            for (int i = 0; i < BUCKET_BOUNDS_MS.length; i++) {
+                seen += buckets[i];
+                if (seen >= target) {
+                    return BUCKET_BOUNDS_MS[i];
+                }
+            }
+            return -1;
+        }
+
+        byte[] toBytes() {
+            ByteBuffer buffer = ByteBuffer.allocate(4 + 8 + 8 + 4 * buckets.length);
+            buffer.putInt(count).putLong(totalMicros).putLong(maxMicros);
+            for (int bucket : buckets) {
+                buffer.putInt(bucket);
+            }
+            return buffer.array();
+        }
+
+        static Histogram fromBytes(byte[] bytes) {
+            Histogram histogram = new Histogram();
+            if (bytes == null || bytes.length != 4 + 8 + 8 + 4 * histogram.buckets.length) {
+                return histogram;
+            }
+            ByteBuffer buffer = ByteBuffer.wrap(bytes);
+            histogram.count = buffer.getInt();
+            histogram.totalMicros = buffer.getLong();
+            histogram.maxMicros = buffer.getLong();
+            for (int i = 0; i < histogram.buckets.length; i++) {
+                histogram.buckets[i] = buffer.getInt();
+            }
+            return histogram;
+        }
+
+        Histogram copy() {
+            Histogram copy = new Histogram();
+            copy.count = count;
+            copy.totalMicros = totalMicros;
+            copy.maxMicros = maxMicros;
+            System.arraycopy(buckets, 0, copy.buckets, 0, buckets.length);
+            return copy;
+        }
+    }
+
+    /**
+     * @param nanos - duration of every phase, negative for phases the request did not reach
+     */
+    public static synchronized void record(@NonNull Context context, @NonNull String[] phases, @NonNull long[] nanos) {
+        MMKV store = store(context);
+        for (int i = 0; i < phases.length; i++) {
+            if (nanos[i] < 0) {
+                continue;
+            }
+            Histogram histogram = histogram(store, phases[i]);
+            histogram.add(nanos[i] / 1000);
+            if (store != null) {
+                store.encode(KEY_PREFIX + phases[i], histogram.toBytes());
+            }
+        }
+    }
+
+    @NonNull
+    public static synchronized Map<String, Histogram> snapshot(@NonNull Context context, @NonNull String[] phases) {
+        MMKV store = store(context);
+        Map<String, Histogram> copy = new LinkedHashMap<>();
+        for (String phase : phases) {
+            copy.put(phase, histogram(store, phase).copy());
+        }
+        return copy;
+    }
+
+    public static synchronized void reset(@NonNull Context context) {
+        histograms.clear();
+        MMKV store = store(context);
+        if (store != null) {
+            store.clearAll();
+        }
+    }
+
+    /**
+     * Read through MMKV when it is available, the app may reset the histograms from another process.
+     */
+    private static Histogram histogram(MMKV store, String phase) {
+        if (store != null) {
+            return Histogram.fromBytes(store.decodeBytes(KEY_PREFIX + phase));
+        }
+        Histogram histogram = histograms.get(phase);
+        if (histogram == null) {
+            histogram = new Histogram();
+            histograms.put(phase, histogram);
+        }
+        return histogram;
+    }
+
+    private static MMKV store(Context context) {
+        if (kv == null) {
+            try {
+                MMKV.initialize(context);
+                kv = MMKV.mmkvWithID(MMKV_ID, MMKV.MULTI_PROCESS_MODE);
+            } catch (Exception e) {
+                // histograms stay in memory only
+            }
+        }
+        return kv;
+    }
+}
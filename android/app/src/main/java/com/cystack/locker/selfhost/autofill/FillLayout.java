@@ -0,0 +1,136 @@
+package com.cystack.locker.selfhost.autofill;
+
+import android.app.assist.AssistStructure;
+import android.os.Build;
+import android.os.Bundle;
+import android.service.autofill.FillContext;
+import android.service.autofill.FillResponse;
+import android.view.autofill.AutofillId;
+import android.view.autofill.AutofillValue;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.annotation.RequiresApi;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * The fields classified when filling, carried to the save request in the response client state.
+ * Saving then only reads the values of those autofill ids instead of parsing the structure again,
+ * so a field is saved as the same type it was filled as.
+ */
+@RequiresApi(api = Build.VERSION_CODES.O)
+public class FillLayout {
+    private static final String KEY_IDS = "locker.layout.ids";
+    private static final String KEY_FILL_TYPES = "locker.layout.fillTypes";
+    private static final String KEY_DOMAIN = "locker.layout.domain";
+    private static final String KEY_PACKAGE = "locker.layout.package";
+
+    @NonNull
+    private final ArrayList<AutofillId> ids;
+    @NonNull
+    private final int[] fillTypes;
+    @Nullable
+    public final String domain;
+    @Nullable
+    public final String packageName;
+
+    private FillLayout(@NonNull ArrayList<AutofillId> ids, @NonNull int[] fillTypes, @Nullable String domain,
+            @Nullable String packageName) {
+        this.ids = ids;
+        this.fillTypes = fillTypes;
+        this.domain = domain;
+        this.packageName = packageName;
+    }
+
+    public static void put(@NonNull FillResponse.Builder response, @NonNull List<Field> fields,
+            @Nullable String domain, @Nullable String packageName) {
+        ArrayList<AutofillId> ids = new ArrayList<>(fields.size());
+        int[] fillTypes = new int[fields.size()];
+        for (int i = 0; i < fields.size(); i++) {
+            ids.add(fields.get(i).autofillId);
+            fillTypes[i] = fields.get(i).fillType;
+        }
+        Bundle state = new Bundle();
+        state.putParcelableArrayList(KEY_IDS, ids);
+        state.putIntArray(KEY_FILL_TYPES, fillTypes);
+        state.putString(KEY_DOMAIN, domain);
+        state.putString(KEY_PACKAGE, packageName);
+        response.setClientState(state);
+    }
+
+    /**
+     * @return null when the response was built without a layout
+     */
+    @Nullable
+    public static FillLayout from(@Nullable Bundle state) {
+        if (state == null || !state.containsKey(KEY_IDS)) {
+            return null;
+        }
+        ArrayList<AutofillId> ids = state.getParcelableArrayList(KEY_IDS);
+        int[] fillTypes = state.getIntArray(KEY_FILL_TYPES);
+        if (ids == null || fillTypes == null || ids.size() != fillTypes.length) {
+            return null;
+        }
+        return new FillLayout(ids, fillTypes, state.getString(KEY_DOMAIN), state.getString(KEY_PACKAGE));
+    }
+
+    /**
+     * The fields of the layout with their current text. Contexts are searched newest first, so a
+     * login split over several screens still finds every field, and each tree is left as soon as
+     * every remaining id has been found.
+     */
+    @NonNull
+    public ArrayList<Field> readFields(@NonNull List<FillContext> contexts) {
+        HashMap<AutofillId, Integer> pending = new HashMap<>(ids.size() * 2);
+        for (int i = 0; i < ids.size(); i++) {
+            pending.put(ids.get(i), i);
+        }
+        String[] values = new String[ids.size()];
+        ArrayDeque<AssistStructure.ViewNode> stack = new ArrayDeque<>();
+        for (int c = contexts.size() - 1; c >= 0 && !pending.isEmpty(); c--) {
+            AssistStructure structure = contexts.get(c).getStructure();
+            for (int w = 0; w < structure.getWindowNodeCount() && !pending.isEmpty(); w++) {
+                stack.clear();
+                AssistStructure.ViewNode root = structure.getWindowNodeAt(w).getRootViewNode();
+                if (root != null) {
+                    stack.push(root);
+                }
+                while (!stack.isEmpty() && !pending.isEmpty()) {
+                    AssistStructure.ViewNode node = stack.pop();
+                    Integer index = pending.remove(node.getAutofillId());
+                    if (index != null) {
+                        values[index] = textOf(node);
+                    }
+                    for (int i = node.getChildCount() - 1; i >= 0; i--) {
+                        AssistStructure.ViewNode child = node.getChildAt(i);
+                        if (child != null) {
+                            stack.push(child);
+                        }
+                    }
+                }
+            }
+        }
+
+        ArrayList<Field> fields = new ArrayList<>(ids.size());
+        for (int i = 0; i < ids.size(); i++) {
+            Field field = new Field(ids.get(i), fillTypes[i]);
+            field.text = values[i];
+            fields.add(field);
+        }
+        return fields;
+    }
+
+    @Nullable
+    private static String textOf(AssistStructure.ViewNode node) {
+        AutofillValue value = node.getAutofillValue();
+        if (value != null && value.isText()) {
+            return value.getTextValue().toString();
+        }
+        CharSequence text = node.getText();
+        return text != null ? text.toString() : null;
+    }
+}
@@ -0,0 +1,312 @@
+package com.cystack.locker.selfhost.autofill;
+
+import android.content.Context;
+import android.os.Build;
+import android.os.Parcel;
+import android.util.Base64;
+import android.view.autofill.AutofillId;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.annotation.RequiresApi;
+
+import com.tencent.mmkv.MMKV;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Fields and domain of the fill responses waiting for the user to pick a dataset, keyed by a random
+ * token carried in the authentication intent. Each response gets its own session, so overlapping
+ * requests can't overwrite each other. Sessions are mirrored to MMKV, so a pick still completes when
+ * the process was killed while the app was unlocking, and expire after SESSION_TTL_MS.
+ */
+@RequiresApi(api = Build.VERSION_CODES.O)
+public class FillSessions {
+    public static final String EXTRA_SESSION = "fillSession";
+
+    private static final String MMKV_ID = "autofill_sessions";
+    private static final long SESSION_TTL_MS = 10 * 60 * 1000;
+    private static final int MAX_SESSIONS = 16;
+    private static final int TOKEN_BYTES = 16;
+    // first int of a persisted session, older sessions were marshalled parcels
+    private static final int FORMAT = 0x4C4B4633; // "LKF3"
+    // bytes of a single autofill id, it is a few ints
+    private static final int MAX_ID_LENGTH = 256;
+
+    private static final SecureRandom random = new SecureRandom();
+    private static final Map<String, Session> sessions = new ConcurrentHashMap<>();
+    private static MMKV kv;
+
+    public static class Session {
+        public final long createdAt;
+        @Nullable
+        public final String domain;
+        // what the credentials are looked up by, see CredentialSource#find
+        @Nullable
+        public final String uri;
+        // only the autofill id and fill type of each field
+        @NonNull
+        public final ArrayList<Field> fields;
+
+        Session(long createdAt, @Nullable String domain, @Nullable String uri, @NonNull ArrayList<Field> fields) {
+            this.createdAt = createdAt;
+            this.domain = domain;
+            this.uri = uri;
+            this.fields = fields;
+        }
+
+        boolean isExpired(long now) {
+            return now - createdAt > SESSION_TTL_MS || now < createdAt;
+        }
+    }
+
+    /**
+     * @return the token of the new session
+     */
+    @NonNull
+    public static String create(@NonNull Context context, @NonNull List<Field> fields, @Nullable String domain,
+            @Nullable String uri) {
+        ArrayList<Field> compact = new ArrayList<>(fields.size());
+        for (Field field : fields) {
+            compact.add(new Field(field.autofillId, field.fillType));
+        }
+        byte[] bytes = new byte[TOKEN_BYTES];
+        random.nextBytes(bytes);
+        String token = Base64.encodeToString(bytes, Base64.URL_SAFE | Base64.NO_PADDING | Base64.NO_WRAP);
+        Session session = new Session(System.currentTimeMillis(), domain, uri, compact);
+
+        MMKV store = store(context);
+        prune();
+        sessions.put(token, session);
+        byte[] persisted = toBytes(session);
+        if (store != null && persisted != null) {
+            store.encode(token, persisted);
+        }
+        return token;
+    }
+
+    @Nullable
+    public static Session get(@NonNull Context context, @Nullable String token) {
+        if (token == null) {
+            return null;
+        }
+        Session session = sessions.get(token);
+        MMKV store = store(context);
+        if (session == null && store != null) {
+            // started before the process was restarted
+            session = fromBytes(store.decodeBytes(token));
+            if (session != null) {
+                sessions.put(token, session);
+            }
+        }
+        if (session != null && store != null && !store.containsKey(token)) {
+            // completed in the other process
+            sessions.remove(token);
+            return null;
+        }
+        if (session != null && session.isExpired(System.currentTimeMillis())) {
+            remove(context, token);
+            return null;
+        }
+        return session;
+    }
+
+    public static void remove(@NonNull Context context, @Nullable String token) {
+        if (token == null) {
+            return;
+        }
+        sessions.remove(token);
+        MMKV store = store(context);
+        if (store != null) {
+            store.remove(token);
+        }
+    }
+
+    /**
+     * Drop expired sessions and the oldest one past MAX_SESSIONS, in memory and in MMKV.
+     */
+    private static void prune() {
+        long now = System.currentTimeMillis();
+        if (kv != null) {
+            // pick up the sessions persisted by a previous process
+            String[] keys = kv.allKeys();
+            if (keys != null && keys.length > sessions.size()) {
+                for (String key : keys) {
+                    if (!sessions.containsKey(key)) {
+                        Session session = fromBytes(kv.decodeBytes(key));
+                        if (session != null) {
+                            sessions.put(key, session);
+                        } else {
+                            kv.remove(key);
+                        }
+                    }
+                }
+            }
+        }
+        String oldest = null;
+        long oldestAt = Long.MAX_VALUE;
+        Iterator<Map.Entry<String, Session>> iterator = sessions.entrySet().iterator();
+        while (iterator.hasNext()) {
+            Map.Entry<String, Session> entry = iterator.next();
+            if (entry.getValue().isExpired(now)) {
+                iterator.remove();
+                if (kv != null) {
+                    kv.remove(entry.getKey());
+                }
+            } else if (entry.getValue().createdAt < oldestAt) {
+                oldestAt = entry.getValue().createdAt;
+                oldest = entry.getKey();
+            }
+        }
+        if (sessions.size() >= MAX_SESSIONS && oldest != null) {
+            sessions.remove(oldest);
+            if (kv != null) {
+                kv.remove(oldest);
+            }
+        }
+    }
+
+    /**
+     * Layout: FORMAT, platform build, creation time, domain, uri, field count, then the fill type and
+     * autofill id of each field. AutofillId has no public accessors for its view and virtual ids, so each
+     * id is kept in its own parcelable form; the platform build is checked first so an id is never read
+     * by another version of the platform than the one that wrote it.
+     */
+    @Nullable
+    private static byte[] toBytes(Session session) {
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(bytes);
+            out.writeInt(FORMAT);
+            writeString(out, Build.FINGERPRINT);
+            out.writeLong(session.createdAt);
+            writeString(out, session.domain);
+            writeString(out, session.uri);
+            out.writeInt(session.fields.size());
+            for (Field field : session.fields) {
+                out.writeInt(field.fillType);
+                byte[] id = autofillIdToBytes(field.autofillId);
+                out.writeInt(id.length);
+                out.write(id);
+            }
+            out.flush();
+            return bytes.toByteArray();
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    @Nullable
+    private static Session fromBytes(@Nullable byte[] bytes) {
+        if (bytes == null || bytes.length == 0) {
+            return null;
+        }
+        try {
+            DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes));
+            if (in.readInt() != FORMAT || !Build.FINGERPRINT.equals(readString(in))) {
+                // written by another app or platform version
+                return null;
+            }
+            long createdAt = in.readLong();
+            String domain = readString(in);
+            String uri = readString(in);
+            int count = in.readInt();
+            if (count < 0 || count > in.available()) {
+                return null;
+            }
+            ArrayList<Field> fields = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                int fillType = in.readInt();
+                int length = in.readInt();
+                if (length < 0 || length > MAX_ID_LENGTH) {
+                    return null;
+                }
+                byte[] id = new byte[length];
+                in.readFully(id);
+                AutofillId autofillId = autofillIdFromBytes(id);
+                if (autofillId == null) {
+                    return null;
+                }
+                fields.add(new Field(autofillId, fillType));
+            }
+            return new Session(createdAt, domain, uri, fields);
+        } catch (IOException | RuntimeException e) {
+            return null;
+        }
+    }
+
+    private static byte[] autofillIdToBytes(@Nullable AutofillId autofillId) {
+        if (autofillId == null) {
+            return new byte[0];
+        }
+        Parcel parcel = Parcel.obtain();
+        try {
+            autofillId.writeToParcel(parcel, 0);
+            return parcel.marshall();
+        } finally {
+            parcel.recycle();
+        }
+    }
+
+    @Nullable
+    private static AutofillId autofillIdFromBytes(byte[] bytes) {
+        if (bytes.length == 0) {
+            return null;
+        }
+        Parcel parcel = Parcel.obtain();
+        try {
+            parcel.unmarshall(bytes, 0, bytes.length);
+            parcel.setDataPosition(0);
+            return AutofillId.CREATOR.createFromParcel(parcel);
+        } finally {
+            parcel.recycle();
+        }
+    }
+
+    private static void writeString(DataOutputStream out, @Nullable String value) throws IOException {
+        if (value == null) {
+            out.writeInt(-1);
+            return;
+        }
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    @Nullable
+    private static String readString(DataInputStream in) throws IOException {
+        int length = in.readInt();
+        if (length < 0) {
+            return null;
+        }
+        if (length > in.available()) {
+            throw new IOException("Truncated session");
+        }
+        byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static synchronized MMKV store(Context context) {
+        if (kv == null) {
+            try {
+                MMKV.initialize(context);
+                kv = MMKV.mmkvWithID(MMKV_ID, MMKV.MULTI_PROCESS_MODE);
+            } catch (Exception e) {
+                // sessions stay in memory only
+            }
+        }
+        return kv;
+    }
+}
@@ -0,0 +1,74 @@
+package com.cystack.locker.selfhost.autofill;
+
+import android.content.Context;
+import android.os.SystemClock;
+import android.os.Trace;
+
+import androidx.annotation.NonNull;
+
+import java.util.Arrays;
+
+/**
+ * Phase timings of one fill request, as systrace sections and in the {@link FillLatency} histograms.
+ * Sections are begun and ended on the thread handling the request.
+ */
+public class FillTrace {
+    public static final int PHASE_STRUCTURE = 0;
+    public static final int PHASE_TRAVERSAL = 1;
+    public static final int PHASE_CLASSIFICATION = 2;
+    public static final int PHASE_LOOKUP = 3;
+    public static final int PHASE_RESPONSE = 4;
+    public static final int PHASE_TOTAL = 5;
+
+    public static final String[] PHASES = {
+            "structure", "traversal", "classification", "lookup", "response", "total"
+    };
+    private static final String[] SECTIONS = {
+            "Locker.structure", "Locker.traversal", "Locker.classification", "Locker.lookup", "Locker.response"
+    };
+
+    private final long startedAt = SystemClock.elapsedRealtimeNanos();
+    private final long[] nanos = new long[PHASES.length];
+    private int phase = -1;
+    private long phaseStartedAt;
+
+    public FillTrace() {
+        Arrays.fill(nanos, -1);
+        Trace.beginSection("Locker.onFillRequest");
+    }
+
+    public void begin(int phase) {
+        if (this.phase >= 0) {
+            end();
+        }
+        this.phase = phase;
+        Trace.beginSection(SECTIONS[phase]);
+        phaseStartedAt = SystemClock.elapsedRealtimeNanos();
+    }
+
+    public void end() {
+        if (phase < 0) {
+            return;
+        }
+        add(phase, SystemClock.elapsedRealtimeNanos() - phaseStartedAt);
+        Trace.endSection();
+        phase = -1;
+    }
+
+    /**
+     * Time measured elsewhere, e.g. by the parser, which traces its own sections.
+     */
+    public void add(int phase, long duration) {
+        nanos[phase] = Math.max(nanos[phase], 0) + duration;
+    }
+
+    /**
+     * End the request and record its phases. Call once, after the callback has been answered.
+     */
+    public void finish(@NonNull Context context) {
+        end();
+        nanos[PHASE_TOTAL] = SystemClock.elapsedRealtimeNanos() - startedAt;
+        Trace.endSection();
+        FillLatency.record(context, PHASES, nanos);
+    }
+}
@@ -4,6 +4,9 @@ import android.app.PendingIntent;
 import android.app.assist.AssistStructure;
 import android.os.Build;
 import android.os.CancellationSignal;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
 import android.service.autofill.AutofillService;
 import android.service.autofill.FillCallback;
 import android.service.autofill.FillContext;
@@ -17,73 +20,171 @@ import androidx.annotation.NonNull;
 import androidx.annotation.RequiresApi;
 
 import com.cystack.locker.selfhost.autofill.parser.Parser;
-import com.cystack.locker.selfhost.RNAutofillServiceAndroid;
+import com.cystack.locker.selfhost.autofill.parser.TermMatcher;
+import com.cystack.locker.selfhost.BuildConfig;
 
 import java.util.ArrayList;
 import java.util.List;
-
-import com.facebook.react.bridge.ReactApplicationContext;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 @RequiresApi(api = Build.VERSION_CODES.O)
 public class LockerAutoFillService extends AutofillService {
     private static final String TAG = "LockerAutoFillService";
-    private boolean readyToStart = false;
+    // Well under the framework timeout, past it the user gets the "open Locker" dataset
+    private static final long VAULT_READY_TIMEOUT_MS = 1500;
+    // The framework gives up on a request after 5s, answer with the "open Locker" dataset long before
+    private static final long FILL_DEADLINE_MS = 2500;
+
+    // Requests are handled one at a time and in order, one queued behind a slow request still answers at its deadline
+    private static final ExecutorService fillExecutor = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "autofill-fill");
+        thread.setPriority(Thread.NORM_PRIORITY + 1);
+        return thread;
+    });
+
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
 
     @Override
     public void onConnected() {
-        Log.d(TAG, "onConnected()");
-        super.onConnected();
-
-        ReactApplicationContext reactContext = new ReactApplicationContext(getApplicationContext());
-        AutofillDataKeychain keyStore = new AutofillDataKeychain(reactContext);
-        if (keyStore.isLoggedInPw) {
-            this.readyToStart = true;
-            Utils.InitCredentialsStore(getBaseContext(), keyStore.email, keyStore.hashPass);
-        } else {
-            Utils.RemoveAllCredential();
+        if (BuildConfig.DEBUG) {
+            Log.d(TAG, "onConnected()");
         }
+        super.onConnected();
+        TermMatcher.install(this);
+        VaultWarmup.start(this);
     }
 
     @Override
     public void onFillRequest(@NonNull FillRequest request, @NonNull CancellationSignal cancellationSignal,
             @NonNull FillCallback callback) {
-        Log.d(TAG, "onFillRequest()");
+        final long deadline = SystemClock.elapsedRealtime() + FILL_DEADLINE_MS;
+        final PendingFill pending = new PendingFill(callback, this);
+        mainHandler.postDelayed(pending.deadline, FILL_DEADLINE_MS);
+        pending.setWork(fillExecutor.submit(() -> {
+            FillTrace trace = new FillTrace();
+            try {
+                fill(request, pending, deadline, trace);
+            } finally {
+                trace.finish(this);
+                // left unanswered by a failure, the deadline still answers
+                if (pending.isDone()) {
+                    mainHandler.removeCallbacks(pending.deadline);
+                }
+            }
+        }));
+        cancellationSignal.setOnCancelListener(() -> {
+            mainHandler.removeCallbacks(pending.deadline);
+            pending.cancel();
+        });
+    }
+
+    private void fill(@NonNull FillRequest request, @NonNull PendingFill pending, long deadline,
+            @NonNull FillTrace trace) {
+        // the app may have saved the vault or signed out since it was loaded, reload it while parsing
+        VaultWarmup.ensureStarted(this);
+
         // Find fillable fields
+        trace.begin(FillTrace.PHASE_STRUCTURE);
         AssistStructure structure = Utils.getLatestAssistStructure(request);
+        trace.end();
         Parser.Result parseResult = new Parser(structure).Parse();
+        trace.add(FillTrace.PHASE_TRAVERSAL, parseResult.getTraversalNanos());
+        trace.add(FillTrace.PHASE_CLASSIFICATION, parseResult.getClassificationNanos());
+        if (pending.isDone()) {
+            return;
+        }
 
         ArrayList<Field> fields = (ArrayList<Field>) parseResult.getFillable();
         String domain = parseResult.getDomain();
 
-        if (fields == null || fields.isEmpty() || Utils.BlacklistedUris.contains(domain) || !this.readyToStart) {
-            Log.d(TAG, "No autofill hints found");
-            callback.onSuccess(null);
+        if (fields == null || fields.isEmpty() || Utils.BlacklistedUris.contains(domain)) {
+            if (BuildConfig.DEBUG) {
+                Log.d(TAG, "No autofill hints found");
+            }
+            pending.answer(null);
             return;
         }
+        pending.setFields(fields, domain, parseResult.getUri());
 
-        Log.d(TAG, "Domain: " + domain);
-        Log.d(TAG, "autofillable fields:" + fields.size());
+        trace.begin(FillTrace.PHASE_LOOKUP);
+        long remaining = deadline - SystemClock.elapsedRealtime();
+        VaultWarmup.Vault vault = VaultWarmup.await(Math.max(0, Math.min(VAULT_READY_TIMEOUT_MS, remaining)));
+        if (pending.isDone()) {
+            return;
+        }
+        if (vault == null) {
+            // Still decrypting, let the user open Locker instead of waiting
+            trace.begin(FillTrace.PHASE_RESPONSE);
+            FillResponse.Builder response = new FillResponse.Builder();
+            response.addDataset(Utils.BuildDataSetLocker(fields, null, domain,
+                    FillSessions.create(this, fields, domain, parseResult.getUri()), this));
+            if (pending.answer(response.build())) {
+                ReactPrewarm.request(this);
+            }
+            return;
+        }
+        if (!vault.isLoggedInPw) {
+            pending.answer(null);
+            return;
+        }
+
+        // Find matching credentials of the vault
+        List<AutofillItem> matches = vault.credentials != null
+                ? vault.credentials.find(parseResult.getUri()) : new ArrayList<>();
+        if (BuildConfig.DEBUG) {
+            Log.d(TAG, "Domain: " + domain + ", autofillable fields: " + fields.size()
+                    + ", matching credentials: " + matches.size());
+        }
+        if (pending.isDone()) {
+            return;
+        }
 
         // Create response...
-        FillResponse.Builder response = Utils.BuildFillResponse(fields, request, domain, this);
+        trace.begin(FillTrace.PHASE_RESPONSE);
+        FillResponse.Builder response = Utils.BuildFillResponse(fields, request, domain,
+                parseResult.getUri(), matches, this);
 
         // add save info
         Utils.AddSaveInfo(request, response, fields, parseResult.getPackageName());
+        // the save request reads the values of these fields instead of parsing again
+        FillLayout.put(response, fields, domain, parseResult.getPackageName());
 
-        callback.onSuccess(response.build());
+        if (pending.answer(response.build())
+                && (Utils.isNullOrWhiteSpace(vault.email) || Utils.isNullOrWhiteSpace(vault.hashPass))) {
+            // the unlock activity can't check the master password, the tap opens the app
+            ReactPrewarm.request(this);
+        }
     }
 
     @Override
     public void onSaveRequest(@NonNull SaveRequest request, @NonNull SaveCallback callback) {
-        Log.d(TAG, "onSaveRequest()");
+        if (BuildConfig.DEBUG) {
+            Log.d(TAG, "onSaveRequest()");
+        }
 
         List<FillContext> context = request.getFillContexts();
-        AssistStructure structure = context.get(context.size() - 1).getStructure();
-        Parser.Result parseResult = new Parser(structure).Parse();
-        ArrayList<Field> fields = (ArrayList<Field>) parseResult.getFillable();
-        String domain = parseResult.getDomain();
+        FillLayout layout = FillLayout.from(request.getClientState());
+        ArrayList<Field> fields;
+        String domain;
+        if (layout != null) {
+            fields = layout.readFields(context);
+            domain = layout.domain;
+        } else {
+            // saving a response built by an older version
+            AssistStructure structure = context.get(context.size() - 1).getStructure();
+            Parser.Result parseResult = new Parser(structure).Parse();
+            fields = (ArrayList<Field>) parseResult.getFillable();
+            domain = parseResult.getDomain();
+        }
 
-        startActivity(RNAutofillServiceAndroid.newIntentForSaveLogin(this, fields, domain));
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.P) {
+            // started by the framework, allowed even while the service has no visible activity
+            callback.onSuccess(SaveConfirmActivity.newIntentSender(this, fields, domain).getIntentSender());
+        } else {
+            startActivity(SaveConfirmActivity.newIntent(this, fields, domain));
+            callback.onSuccess();
+        }
     }
 
 }
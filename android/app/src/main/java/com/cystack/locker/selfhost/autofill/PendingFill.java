@@ -0,0 +1,95 @@
+package com.cystack.locker.selfhost.autofill;
+
+import android.content.Context;
+import android.os.Build;
+import android.service.autofill.FillCallback;
+import android.service.autofill.FillResponse;
+
+import androidx.annotation.Nullable;
+import androidx.annotation.RequiresApi;
+
+import java.util.ArrayList;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * One fill request handled off the main thread. The callback is answered exactly once: by the worker,
+ * by the deadline with the "open Locker" dataset, or never when the framework cancelled the request.
+ */
+@RequiresApi(api = Build.VERSION_CODES.O)
+class PendingFill {
+    private final FillCallback callback;
+    private final Context context;
+    private final AtomicBoolean done = new AtomicBoolean();
+    private volatile Future<?> work;
+    // known once the structure is parsed, needed to answer at the deadline
+    private volatile ArrayList<Field> fields;
+    private volatile String domain;
+    private volatile String uri;
+
+    final Runnable deadline = this::onDeadline;
+
+    PendingFill(FillCallback callback, Context context) {
+        this.callback = callback;
+        this.context = context;
+    }
+
+    void setWork(Future<?> work) {
+        this.work = work;
+    }
+
+    void setFields(ArrayList<Field> fields, String domain, String uri) {
+        this.domain = domain;
+        this.uri = uri;
+        this.fields = fields;
+    }
+
+    boolean isDone() {
+        return done.get();
+    }
+
+    /**
+     * @return false when the request was already answered or cancelled, the response is dropped
+     */
+    boolean answer(@Nullable FillResponse response) {
+        if (!done.compareAndSet(false, true)) {
+            return false;
+        }
+        callback.onSuccess(response);
+        return true;
+    }
+
+    void cancel() {
+        if (done.compareAndSet(false, true)) {
+            interrupt();
+        }
+    }
+
+    private void onDeadline() {
+        if (done.get()) {
+            return;
+        }
+        ArrayList<Field> fields = this.fields;
+        FillResponse response = null;
+        if (fields != null && !fields.isEmpty()) {
+            response = new FillResponse.Builder()
+                    .addDataset(Utils.BuildDataSetLocker(fields, null, domain,
+                            FillSessions.create(context, fields, domain, uri), context))
+                    .build();
+        }
+        if (answer(response)) {
+            interrupt();
+            if (response != null) {
+                // the vault isn't ready yet, the app will likely finish the fill
+                ReactPrewarm.request(context);
+            }
+        }
+    }
+
+    private void interrupt() {
+        Future<?> work = this.work;
+        if (work != null) {
+            work.cancel(true);
+        }
+    }
+}
@@ -0,0 +1,324 @@
+package com.cystack.locker.selfhost.autofill;
+
+import android.content.Context;
+import android.security.keystore.KeyGenParameterSpec;
+import android.security.keystore.KeyProperties;
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import com.cystack.locker.selfhost.BuildConfig;
+import com.tencent.mmkv.MMKV;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.KeyStore;
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.crypto.Cipher;
+import javax.crypto.KeyGenerator;
+import javax.crypto.SecretKey;
+import javax.crypto.spec.GCMParameterSpec;
+
+/**
+ * Credentials confirmed in {@link SaveConfirmActivity}, waiting for the app to add them to the vault.
+ *
+ * The queue is append only: entries get increasing sequence numbers and are removed by the app once
+ * it has created their ciphers, see {@link #ack}. Each entry is sealed with AES-GCM under an Android
+ * Keystore key, its sequence number is the associated data so entries can't be swapped or replayed.
+ *
+ * Entries carry the email of the account that was signed in when they were confirmed, the app only adds
+ * those of its current account. The queue is cleared when the account signs out, see {@link #clear}.
+ */
+public class PendingSaves {
+    private static final String TAG = "PendingSaves";
+
+    private static final String MMKV_ID = "autofill_pending_saves";
+    private static final String HEAD_KEY = "head";
+    private static final String TAIL_KEY = "tail";
+    private static final String ENTRY_PREFIX = "s.";
+    // Saves the app never picked up, the oldest are dropped past this
+    private static final int MAX_ENTRIES = 256;
+
+    private static final String KEY_ALIAS = "locker_autofill_pending_saves";
+    private static final String KEYSTORE = "AndroidKeyStore";
+    private static final String TRANSFORMATION = "AES/GCM/NoPadding";
+    private static final int IV_LENGTH = 12;
+    private static final int TAG_LENGTH_BITS = 128;
+
+    private static MMKV kv;
+
+    public static class Entry {
+        public final long seq;
+        public final long createdAt;
+        // email of the account the credential was confirmed for, null for entries queued before it was kept
+        @Nullable
+        public final String account;
+        @Nullable
+        public final String name;
+        @Nullable
+        public final String username;
+        @Nullable
+        public final String password;
+        @Nullable
+        public final String uri;
+
+        Entry(long seq, long createdAt, @Nullable String account, @Nullable String name,
+                @Nullable String username, @Nullable String password, @Nullable String uri) {
+            this.seq = seq;
+            this.createdAt = createdAt;
+            this.account = account;
+            this.name = name;
+            this.username = username;
+            this.password = password;
+            this.uri = uri;
+        }
+    }
+
+    /**
+     * @return false when the credential could not be stored
+     */
+    public static boolean append(@NonNull Context context, @NonNull String account, @Nullable String name,
+            @Nullable String username, @Nullable String password, @Nullable String uri) {
+        MMKV store = store(context);
+        if (store == null) {
+            return false;
+        }
+        store.lock();
+        try {
+            long head = store.decodeLong(HEAD_KEY, 0);
+            long tail = store.decodeLong(TAIL_KEY, 0);
+            byte[] sealed = seal(getKey(true), tail,
+                    encode(new Entry(tail, System.currentTimeMillis(), account, name, username, password, uri)));
+            store.encode(ENTRY_PREFIX + tail, sealed);
+            store.encode(TAIL_KEY, tail + 1);
+            if (tail + 1 - head > MAX_ENTRIES) {
+                store.remove(ENTRY_PREFIX + head);
+                store.encode(HEAD_KEY, head + 1);
+            }
+            return true;
+        } catch (GeneralSecurityException | IOException e) {
+            Log.e(TAG, "append: " + e.getMessage());
+            return false;
+        } finally {
+            store.unlock();
+        }
+    }
+
+    public static class Batch {
+        @NonNull
+        public final List<Entry> entries = new ArrayList<>();
+        // sequence number to ack once the entries are stored, -1 when nothing was pending
+        public long last = -1;
+    }
+
+    /**
+     * The oldest pending entries, at most limit. Entries that can't be opened any more, e.g. after the
+     * keystore key was lost, are skipped but still covered by {@link Batch#last}, acking the batch
+     * drops them too.
+     */
+    @NonNull
+    public static Batch peek(@NonNull Context context, int limit) {
+        Batch batch = new Batch();
+        MMKV store = store(context);
+        if (store == null) {
+            return batch;
+        }
+        long head = store.decodeLong(HEAD_KEY, 0);
+        long tail = store.decodeLong(TAIL_KEY, 0);
+        if (head >= tail) {
+            return batch;
+        }
+        SecretKey key;
+        try {
+            key = getKey(false);
+        } catch (GeneralSecurityException | IOException e) {
+            Log.e(TAG, "peek: " + e.getMessage());
+            return batch;
+        }
+        for (long seq = head; seq < tail && batch.entries.size() < limit; seq++) {
+            batch.last = seq;
+            byte[] sealed = store.decodeBytes(ENTRY_PREFIX + seq);
+            if (sealed == null || key == null) {
+                continue;
+            }
+            try {
+                batch.entries.add(decode(seq, open(key, seq, sealed)));
+            } catch (GeneralSecurityException | IOException e) {
+                if (BuildConfig.DEBUG) {
+                    Log.d(TAG, "Skipping pending save " + seq + ": " + e.getMessage());
+                }
+            }
+        }
+        return batch;
+    }
+
+    /**
+     * Remove every entry up to and including seq.
+     */
+    public static void ack(@NonNull Context context, long seq) {
+        MMKV store = store(context);
+        if (store == null) {
+            return;
+        }
+        store.lock();
+        try {
+            removeUpTo(store, seq);
+        } finally {
+            store.unlock();
+        }
+    }
+
+    /**
+     * Drop every entry, when the account signs out. Sequence numbers keep increasing, so a batch peeked
+     * before can't ack entries appended after.
+     */
+    public static void clear(@NonNull Context context) {
+        MMKV store = store(context);
+        if (store == null) {
+            return;
+        }
+        store.lock();
+        try {
+            removeUpTo(store, store.decodeLong(TAIL_KEY, 0) - 1);
+        } finally {
+            store.unlock();
+        }
+    }
+
+    public static int count(@NonNull Context context) {
+        MMKV store = store(context);
+        if (store == null) {
+            return 0;
+        }
+        return (int) Math.max(0, store.decodeLong(TAIL_KEY, 0) - store.decodeLong(HEAD_KEY, 0));
+    }
+
+    // the caller holds the store lock
+    private static void removeUpTo(MMKV store, long seq) {
+        long head = store.decodeLong(HEAD_KEY, 0);
+        long end = Math.min(seq + 1, store.decodeLong(TAIL_KEY, 0));
+        if (end <= head) {
+            return;
+        }
+        String[] keys = new String[(int) (end - head)];
+        for (long s = head; s < end; s++) {
+            keys[(int) (s - head)] = ENTRY_PREFIX + s;
+        }
+        store.removeValuesForKeys(keys);
+        store.encode(HEAD_KEY, end);
+    }
+
+    private static byte[] encode(Entry entry) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeLong(entry.createdAt);
+        writeString(out, entry.name);
+        writeString(out, entry.username);
+        writeString(out, entry.password);
+        writeString(out, entry.uri);
+        writeString(out, entry.account);
+        out.flush();
+        return bytes.toByteArray();
+    }
+
+    private static Entry decode(long seq, byte[] plain) throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(plain));
+        long createdAt = in.readLong();
+        String name = readString(in);
+        String username = readString(in);
+        String password = readString(in);
+        String uri = readString(in);
+        // appended last, absent from entries queued by earlier versions
+        String account = in.available() > 0 ? readString(in) : null;
+        return new Entry(seq, createdAt, account, name, username, password, uri);
+    }
+
+    private static byte[] seal(SecretKey key, long seq, byte[] plain) throws GeneralSecurityException {
+        Cipher cipher = Cipher.getInstance(TRANSFORMATION);
+        // The keystore picks a fresh IV for every entry
+        cipher.init(Cipher.ENCRYPT_MODE, key);
+        cipher.updateAAD(associatedData(seq));
+        byte[] iv = cipher.getIV();
+        byte[] sealed = cipher.doFinal(plain);
+        byte[] result = new byte[IV_LENGTH + sealed.length];
+        System.arraycopy(iv, 0, result, 0, IV_LENGTH);
+        System.arraycopy(sealed, 0, result, IV_LENGTH, sealed.length);
+        return result;
+    }
+
+    private static byte[] open(SecretKey key, long seq, byte[] sealed) throws GeneralSecurityException {
+        if (sealed.length < IV_LENGTH) {
+            throw new GeneralSecurityException("Truncated entry");
+        }
+        Cipher cipher = Cipher.getInstance(TRANSFORMATION);
+        cipher.init(Cipher.DECRYPT_MODE, key, new GCMParameterSpec(TAG_LENGTH_BITS, sealed, 0, IV_LENGTH));
+        cipher.updateAAD(associatedData(seq));
+        return cipher.doFinal(sealed, IV_LENGTH, sealed.length - IV_LENGTH);
+    }
+
+    private static byte[] associatedData(long seq) {
+        return ByteBuffer.allocate(8).putLong(seq).array();
+    }
+
+    private static void writeString(DataOutputStream out, @Nullable String value) throws IOException {
+        if (value == null) {
+            out.writeInt(-1);
+            return;
+        }
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    @Nullable
+    private static String readString(DataInputStream in) throws IOException {
+        int length = in.readInt();
+        if (length < 0) {
+            return null;
+        }
+        byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    @Nullable
+    private static SecretKey getKey(boolean create) throws GeneralSecurityException, IOException {
+        KeyStore keyStore = KeyStore.getInstance(KEYSTORE);
+        keyStore.load(null);
+        if (keyStore.containsAlias(KEY_ALIAS)) {
+            return (SecretKey) keyStore.getKey(KEY_ALIAS, null);
+        }
+        if (!create) {
+            return null;
+        }
+        KeyGenerator generator = KeyGenerator.getInstance(KeyProperties.KEY_ALGORITHM_AES, KEYSTORE);
+        generator.init(new KeyGenParameterSpec.Builder(KEY_ALIAS,
+                KeyProperties.PURPOSE_ENCRYPT | KeyProperties.PURPOSE_DECRYPT)
+                .setBlockModes(KeyProperties.BLOCK_MODE_GCM)
+                .setEncryptionPaddings(KeyProperties.ENCRYPTION_PADDING_NONE)
+                .setKeySize(256)
+                .build());
+        return generator.generateKey();
+    }
+
+    private static synchronized MMKV store(Context context) {
+        if (kv == null) {
+            try {
+                MMKV.initialize(context);
+                kv = MMKV.mmkvWithID(MMKV_ID, MMKV.MULTI_PROCESS_MODE);
+            } catch (Exception e) {
+                Log.e(TAG, "Can't open the pending saves: " + e.getMessage());
+            }
+        }
+        return kv;
+    }
+}
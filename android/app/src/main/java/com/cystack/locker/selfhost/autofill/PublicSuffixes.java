@@ -0,0 +1,205 @@
+package com.cystack.locker.selfhost.autofill;
+
+import android.content.Context;
+import android.content.res.AssetFileDescriptor;
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.net.IDN;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Locale;
+
+/**
+ * Offline Public Suffix List, compiled at build time by the compilePublicSuffixList task
+ * (android/app/autofill-assets.gradle) from core/resources/public_suffix_list.dat.
+ *
+ * The asset is stored uncompressed and memory-mapped: nothing is parsed or copied on the heap, a
+ * lookup walks the trie from the top-level label with one binary search per label.
+ *
+ * Layout, big endian:
+ * <pre>
+ * header  magic, version, node count, offset of the label pool (HEADER_SIZE bytes)
+ * nodes   node count x (int label offset, ubyte label length, ubyte flags, ushort child count, int first child)
+ * labels  ASCII (punycode) labels
+ * </pre>
+ * Node 0 is the root. The nodes are written breadth first, so the children of a node are contiguous
+ * and sorted by label. A wildcard rule ("*.ck") is a child labelled "*", which always sorts first.
+ */
+public class PublicSuffixes {
+    private static final String TAG = "PublicSuffixes";
+    private static final String ASSET = "public_suffix.trie";
+
+    private static final int MAGIC = 0x4C505331; // "LPS1"
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 16;
+    private static final int NODE_SIZE = 12;
+
+    private static final int FLAG_RULE = 1;
+    private static final int FLAG_EXCEPTION = 2;
+
+    private static Context appContext;
+    private static PublicSuffixes instance;
+    private static boolean loaded;
+
+    private final ByteBuffer buffer;
+    private final int nodeCount;
+    private final int labelsOffset;
+
+    PublicSuffixes(@NonNull ByteBuffer buffer) throws IOException {
+        if (buffer.limit() < HEADER_SIZE || buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION) {
+            throw new IOException("Unknown public suffix trie format");
+        }
+        this.buffer = buffer;
+        this.nodeCount = buffer.getInt(8);
+        this.labelsOffset = buffer.getInt(12);
+        if (nodeCount < 1 || labelsOffset != HEADER_SIZE + nodeCount * NODE_SIZE || labelsOffset > buffer.limit()) {
+            throw new IOException("Truncated public suffix trie");
+        }
+    }
+
+    /**
+     * Called from Application.onCreate of every process, the asset is only mapped on the first lookup.
+     */
+    public static synchronized void init(@NonNull Context context) {
+        appContext = context.getApplicationContext();
+    }
+
+    /**
+     * @return null when the asset is missing or unreadable, callers fall back to a heuristic
+     */
+    @Nullable
+    public static synchronized PublicSuffixes get() {
+        if (!loaded && appContext != null) {
+            loaded = true;
+            try (AssetFileDescriptor fd = appContext.getAssets().openFd(ASSET);
+                 FileInputStream in = fd.createInputStream();
+                 FileChannel channel = in.getChannel()) {
+                instance = new PublicSuffixes(
+                        channel.map(FileChannel.MapMode.READ_ONLY, fd.getStartOffset(), fd.getLength()));
+            } catch (IOException e) {
+                Log.e(TAG, "Cannot map " + ASSET, e);
+            }
+        }
+        return instance;
+    }
+
+    /**
+     * The registrable domain (eTLD+1) of a lower-cased host, e.g. accounts.example.co.uk -> example.co.uk.
+     * A host that is itself a public suffix is returned as is.
+     */
+    @NonNull
+    public String getRegistrableDomain(@NonNull String host) {
+        String ascii = toAscii(host);
+        // labels of the public suffix, the implicit "*" rule makes it at least the top-level label
+        int suffixLabels = 1;
+        int depth = 0;
+        int node = 0;
+        int end = ascii.length();
+        while (end > 0) {
+            int start = ascii.lastIndexOf('.', end - 1) + 1;
+            int childCount = childCount(node);
+            if (childCount > 0) {
+                int first = firstChild(node);
+                if (isWildcard(first) && (flags(first) & FLAG_RULE) != 0) {
+                    suffixLabels = Math.max(suffixLabels, depth + 1);
+                }
+            }
+            int child = findChild(node, ascii, start, end);
+            if (child < 0) {
+                break;
+            }
+            depth++;
+            int flags = flags(child);
+            if ((flags & FLAG_EXCEPTION) != 0) {
+                // "!www.ck": exceptions always win, the suffix is the parent rule
+                suffixLabels = depth - 1;
+                break;
+            }
+            if ((flags & FLAG_RULE) != 0) {
+                suffixLabels = Math.max(suffixLabels, depth);
+            }
+            node = child;
+            end = start - 1;
+        }
+
+        // keep suffixLabels + 1 labels
+        int start = ascii.length();
+        for (int i = 0; i <= suffixLabels; i++) {
+            if (start <= 0) {
+                return ascii;
+            }
+            start = ascii.lastIndexOf('.', start - 1);
+            if (start < 0) {
+                return ascii;
+            }
+        }
+        return ascii.substring(start + 1);
+    }
+
+    private int findChild(int node, String host, int start, int end) {
+        int low = firstChild(node);
+        int high = low + childCount(node) - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            int cmp = compareLabel(mid, host, start, end);
+            if (cmp < 0) {
+                low = mid + 1;
+            } else if (cmp > 0) {
+                high = mid - 1;
+            } else {
+                return mid;
+            }
+        }
+        return -1;
+    }
+
+    private int compareLabel(int node, String host, int start, int end) {
+        int base = HEADER_SIZE + node * NODE_SIZE;
+        int offset = labelsOffset + buffer.getInt(base);
+        int length = buffer.get(base + 4) & 0xFF;
+        int hostLength = end - start;
+        int n = Math.min(length, hostLength);
+        for (int i = 0; i < n; i++) {
+            int diff = (buffer.get(offset + i) & 0xFF) - host.charAt(start + i);
+            if (diff != 0) {
+                return diff;
+            }
+        }
+        return length - hostLength;
+    }
+
+    private boolean isWildcard(int node) {
+        int base = HEADER_SIZE + node * NODE_SIZE;
+        return (buffer.get(base + 4) & 0xFF) == 1 && buffer.get(labelsOffset + buffer.getInt(base)) == '*';
+    }
+
+    private int flags(int node) {
+        return buffer.get(HEADER_SIZE + node * NODE_SIZE + 5) & 0xFF;
+    }
+
+    private int childCount(int node) {
+        return buffer.getShort(HEADER_SIZE + node * NODE_SIZE + 6) & 0xFFFF;
+    }
+
+    private int firstChild(int node) {
+        return buffer.getInt(HEADER_SIZE + node * NODE_SIZE + 8);
+    }
+
+    private static String toAscii(String host) {
+        for (int i = 0; i < host.length(); i++) {
+            if (host.charAt(i) >= 0x80) {
+                try {
+                    return IDN.toASCII(host).toLowerCase(Locale.ROOT);
+                } catch (IllegalArgumentException e) {
+                    return host;
+                }
+            }
+        }
+        return host;
+    }
+}
@@ -0,0 +1,46 @@
+package com.cystack.locker.selfhost.autofill;
+
+import android.content.Context;
+import android.net.Uri;
+import android.os.SystemClock;
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+
+import com.cystack.locker.selfhost.ReactPrewarmProvider;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Asks the app process to start React when a fill response is likely to be completed in the app, so
+ * the lock screen is ready sooner after the tap. The service runs in its own process, the request goes
+ * through {@link ReactPrewarmProvider}; it never delays the response and is sent at most once per
+ * MIN_INTERVAL_MS.
+ */
+public class ReactPrewarm {
+    private static final String TAG = "ReactPrewarm";
+    private static final long MIN_INTERVAL_MS = 30 * 1000;
+
+    // a cold app process takes a while to answer, keep it off the fill thread
+    private static final ExecutorService executor = Executors.newSingleThreadExecutor(
+            runnable -> new Thread(runnable, "autofill-prewarm"));
+    private static long requestedAt = -MIN_INTERVAL_MS;
+
+    public static synchronized void request(@NonNull Context context) {
+        long now = SystemClock.elapsedRealtime();
+        if (now - requestedAt < MIN_INTERVAL_MS) {
+            return;
+        }
+        requestedAt = now;
+        final Context appContext = context.getApplicationContext();
+        executor.execute(() -> {
+            try {
+                appContext.getContentResolver().call(Uri.parse("content://" + ReactPrewarmProvider.AUTHORITY),
+                        ReactPrewarmProvider.METHOD_PREWARM, null, null);
+            } catch (RuntimeException e) {
+                Log.w(TAG, "Cannot prewarm: " + e.getMessage());
+            }
+        });
+    }
+}
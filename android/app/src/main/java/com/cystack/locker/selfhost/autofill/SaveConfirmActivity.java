@@ -0,0 +1,190 @@
+package com.cystack.locker.selfhost.autofill;
+
+import android.app.Activity;
+import android.app.PendingIntent;
+import android.content.Context;
+import android.content.Intent;
+import android.net.Uri;
+import android.os.Build;
+import android.os.Bundle;
+import android.view.View;
+import android.view.WindowManager;
+import android.widget.EditText;
+import android.widget.TextView;
+import android.widget.Toast;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.annotation.RequiresApi;
+
+import com.cystack.locker.selfhost.R;
+import com.cystack.locker.selfhost.RNAutofillServiceAndroid;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Native confirmation of a save request. The credential goes to {@link PendingSaves} and is added to
+ * the vault by the app on its next start or sync, so saving never waits for React to boot.
+ *
+ * The values are handed over in memory, the intent only carries a token: they don't pass through
+ * the system in extras and are gone with the process.
+ */
+@RequiresApi(api = Build.VERSION_CODES.O)
+public class SaveConfirmActivity extends Activity {
+    private static final String EXTRA_DRAFT = "saveDraft";
+    private static final int MAX_DRAFTS = 4;
+    private static final long VAULT_READY_TIMEOUT_MS = 5000;
+
+    // waits for the vault to know the signed-in account, never on the main thread
+    private static final ExecutorService executor = Executors.newSingleThreadExecutor(
+            runnable -> new Thread(runnable, "autofill-save"));
+
+    private static final Map<String, Draft> drafts = new ConcurrentHashMap<>();
+
+    private static class Draft {
+        final long createdAt = System.currentTimeMillis();
+        final ArrayList<Field> fields;
+        final String domain;
+
+        Draft(ArrayList<Field> fields, String domain) {
+            this.fields = fields;
+            this.domain = domain;
+        }
+    }
+
+    @Nullable
+    private String token;
+    @Nullable
+    private Draft draft;
+    private EditText username;
+    private EditText password;
+
+    public static PendingIntent newIntentSender(@NonNull Context context, @NonNull ArrayList<Field> fields,
+            @Nullable String domain) {
+        return PendingIntent.getActivity(context, 1003, newIntent(context, fields, domain),
+                PendingIntent.FLAG_UPDATE_CURRENT | PendingIntent.FLAG_IMMUTABLE);
+    }
+
+    public static Intent newIntent(@NonNull Context context, @NonNull ArrayList<Field> fields, @Nullable String domain) {
+        String token = UUID.randomUUID().toString();
+        if (drafts.size() >= MAX_DRAFTS) {
+            dropOldest();
+        }
+        drafts.put(token, new Draft(fields, domain));
+        Intent intent = new Intent(context, SaveConfirmActivity.class);
+        intent.setData(Uri.parse("locker-autofill://save/" + token));
+        intent.setFlags(Intent.FLAG_ACTIVITY_NEW_TASK | Intent.FLAG_ACTIVITY_EXCLUDE_FROM_RECENTS);
+        intent.putExtra(EXTRA_DRAFT, token);
+        return intent;
+    }
+
+    private static void dropOldest() {
+        String oldest = null;
+        long oldestAt = Long.MAX_VALUE;
+        Iterator<Map.Entry<String, Draft>> iterator = drafts.entrySet().iterator();
+        while (iterator.hasNext()) {
+            Map.Entry<String, Draft> entry = iterator.next();
+            if (entry.getValue().createdAt < oldestAt) {
+                oldestAt = entry.getValue().createdAt;
+                oldest = entry.getKey();
+            }
+        }
+        if (oldest != null) {
+            drafts.remove(oldest);
+        }
+    }
+
+    @Override
+    protected void onCreate(Bundle savedInstanceState) {
+        super.onCreate(savedInstanceState);
+        getWindow().setFlags(WindowManager.LayoutParams.FLAG_SECURE, WindowManager.LayoutParams.FLAG_SECURE);
+
+        // kept until the activity finishes, a configuration change recreates it with the same intent
+        token = getIntent().getStringExtra(EXTRA_DRAFT);
+        draft = token != null ? drafts.get(token) : null;
+        if (draft == null) {
+            // the process was restarted since the save request, the values are gone
+            finish();
+            return;
+        }
+
+        // the queued credential is bound to the account of the vault
+        VaultWarmup.ensureStarted(getApplicationContext());
+
+        setContentView(R.layout.activity_save_confirm);
+        TextView domain = findViewById(R.id.save_domain);
+        username = findViewById(R.id.save_username);
+        password = findViewById(R.id.save_password);
+        domain.setText(draft.domain);
+        for (Field field : draft.fields) {
+            if (field.fillType == Field.FILL_TYPE_PASSWORD) {
+                password.setText(field.text);
+            }
+            if (field.fillType == Field.FILL_TYPE_EMAIL || field.fillType == Field.FILL_TYPE_USERNAME) {
+                username.setText(field.text);
+            }
+        }
+
+        findViewById(R.id.save_confirm).setOnClickListener(v -> save());
+        findViewById(R.id.save_cancel).setOnClickListener(v -> finish());
+        findViewById(R.id.save_edit).setOnClickListener(v -> edit());
+    }
+
+    @Override
+    protected void onDestroy() {
+        super.onDestroy();
+        // saved, edited in the app, cancelled or left
+        if (isFinishing() && token != null) {
+            drafts.remove(token);
+        }
+    }
+
+    /**
+     * Continue in the full editor of the app, with folders, notes...
+     */
+    private void edit() {
+        ArrayList<Field> fields = new ArrayList<>(2);
+        Field usernameField = new Field(null, Field.FILL_TYPE_USERNAME);
+        usernameField.text = username.getText().toString();
+        fields.add(usernameField);
+        Field passwordField = new Field(null, Field.FILL_TYPE_PASSWORD);
+        passwordField.text = password.getText().toString();
+        fields.add(passwordField);
+        startActivity(RNAutofillServiceAndroid.newIntentForSaveLogin(this, fields, draft.domain));
+        finish();
+    }
+
+    private void save() {
+        View confirm = findViewById(R.id.save_confirm);
+        confirm.setEnabled(false);
+        final String name = draft.domain;
+        final String usernameText = username.getText().toString();
+        final String passwordText = password.getText().toString();
+        final Context appContext = getApplicationContext();
+        executor.execute(() -> {
+            VaultWarmup.Vault vault = VaultWarmup.await(VAULT_READY_TIMEOUT_MS);
+            // null when signed out, there is no vault to add the credential to
+            String account = vault != null && vault.isLoggedInPw ? vault.email : null;
+            // named and linked like the app names a login saved from autofill
+            boolean saved = account != null
+                    && PendingSaves.append(appContext, account, name, usernameText, passwordText, name);
+            runOnUiThread(() -> {
+                if (isFinishing()) {
+                    return;
+                }
+                if (!saved) {
+                    Toast.makeText(this, R.string.save_failed, Toast.LENGTH_SHORT).show();
+                    confirm.setEnabled(true);
+                    return;
+                }
+                finish();
+            });
+        });
+    }
+}
@@ -0,0 +1,285 @@
+package com.cystack.locker.selfhost.autofill;
+
+import android.app.Activity;
+import android.app.PendingIntent;
+import android.content.Context;
+import android.content.Intent;
+import android.hardware.biometrics.BiometricPrompt;
+import android.net.Uri;
+import android.os.Build;
+import android.os.Bundle;
+import android.os.CancellationSignal;
+import android.os.Handler;
+import android.os.Looper;
+import android.view.View;
+import android.view.ViewGroup;
+import android.view.WindowManager;
+import android.widget.ArrayAdapter;
+import android.widget.EditText;
+import android.widget.ListView;
+import android.widget.TextView;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.annotation.RequiresApi;
+
+import com.cystack.locker.selfhost.R;
+import com.cystack.locker.selfhost.RNAutofillServiceAndroid;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Authentication of the Locker datasets: unlock with a biometric or the master password, then pick
+ * a matching credential of the native vault and return the dataset to the framework, without starting
+ * React. The app is only opened when the vault needs it, e.g. the user isn't logged in, or to search
+ * the whole vault.
+ *
+ * The vault is already readable by the autofill service, the biometric prompt only confirms the user
+ * is present, like the lock screen of the app does.
+ */
+@RequiresApi(api = Build.VERSION_CODES.O)
+public class UnlockFillActivity extends Activity {
+    private static final String EXTRA_ITEM_ID = "itemID";
+    private static final long VAULT_READY_TIMEOUT_MS = 5000;
+    private static final int MAX_FAILED_ATTEMPTS = 5;
+    private static final int REQUEST_OPEN_APP = 1;
+
+    // the master password hash takes 100k PBKDF2 iterations, never on the main thread
+    private static final ExecutorService executor = Executors.newSingleThreadExecutor(
+            runnable -> new Thread(runnable, "autofill-unlock"));
+
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+
+    private String token;
+    private FillSessions.Session session;
+    @Nullable
+    private String itemId;
+    @Nullable
+    private VaultWarmup.Vault vault;
+    @Nullable
+    private CancellationSignal biometricCancel;
+    private int failedAttempts;
+
+    private View form;
+    private EditText password;
+    private View submit;
+
+    /**
+     * @param session - token of the {@link FillSessions} session the picked item completes
+     * @param itemId - the credential of an item dataset, null for the Locker dataset
+     */
+    public static PendingIntent newIntentSender(@NonNull Context context, String session, @Nullable String itemId) {
+        Intent intent = new Intent(context, UnlockFillActivity.class);
+        // Every dataset gets its own intent identity so the datasets of one response don't replace each other
+        String path = Uri.encode(session) + (itemId != null ? "/" + Uri.encode(itemId) : "");
+        intent.setData(Uri.parse("locker-autofill://unlock/" + path));
+        intent.putExtra(FillSessions.EXTRA_SESSION, session);
+        intent.putExtra(EXTRA_ITEM_ID, itemId);
+        return PendingIntent.getActivity(context, 1001, intent,
+                PendingIntent.FLAG_UPDATE_CURRENT | PendingIntent.FLAG_IMMUTABLE);
+    }
+
+    @Override
+    protected void onCreate(Bundle savedInstanceState) {
+        super.onCreate(savedInstanceState);
+        getWindow().setFlags(WindowManager.LayoutParams.FLAG_SECURE, WindowManager.LayoutParams.FLAG_SECURE);
+
+        token = getIntent().getStringExtra(FillSessions.EXTRA_SESSION);
+        itemId = getIntent().getStringExtra(EXTRA_ITEM_ID);
+        session = FillSessions.get(this, token);
+        if (session == null) {
+            // expired, the user has to request autofill again
+            cancel();
+            return;
+        }
+
+        setContentView(R.layout.activity_unlock_fill);
+        TextView domain = findViewById(R.id.unlock_domain);
+        domain.setText(session.domain);
+        form = findViewById(R.id.unlock_form);
+        password = findViewById(R.id.unlock_password);
+        submit = findViewById(R.id.unlock_submit);
+        submit.setEnabled(false);
+        submit.setOnClickListener(v -> unlockWithPassword());
+        findViewById(R.id.unlock_cancel).setOnClickListener(v -> cancel());
+        findViewById(R.id.unlock_biometric).setOnClickListener(v -> unlockWithBiometric());
+        findViewById(R.id.unlock_open_app).setOnClickListener(v -> openApp());
+
+        final Context appContext = getApplicationContext();
+        executor.execute(() -> {
+            VaultWarmup.ensureStarted(appContext);
+            VaultWarmup.Vault loaded = VaultWarmup.await(VAULT_READY_TIMEOUT_MS);
+            mainHandler.post(() -> onVaultLoaded(loaded));
+        });
+    }
+
+    @Override
+    protected void onDestroy() {
+        if (biometricCancel != null) {
+            biometricCancel.cancel();
+        }
+        super.onDestroy();
+    }
+
+    private void onVaultLoaded(@Nullable VaultWarmup.Vault loaded) {
+        if (isFinishing()) {
+            return;
+        }
+        if (loaded == null || !loaded.isLoggedInPw || loaded.credentials == null
+                || Utils.isNullOrWhiteSpace(loaded.email) || Utils.isNullOrWhiteSpace(loaded.hashPass)) {
+            // logged out, locked without a master password or still decrypting: the app handles it
+            openApp();
+            return;
+        }
+        vault = loaded;
+        submit.setEnabled(true);
+        if (vault.faceIdEnabled && Build.VERSION.SDK_INT >= Build.VERSION_CODES.P) {
+            findViewById(R.id.unlock_biometric).setVisibility(View.VISIBLE);
+            unlockWithBiometric();
+        }
+    }
+
+    private void unlockWithPassword() {
+        String masterPassword = password.getText().toString();
+        if (vault == null || masterPassword.isEmpty()) {
+            return;
+        }
+        submit.setEnabled(false);
+        final String email = vault.email;
+        final byte[] expected = vault.hashPass.getBytes(StandardCharsets.UTF_8);
+        executor.execute(() -> {
+            String hash = Utils.makeKeyHash(masterPassword, email);
+            boolean valid = hash != null && MessageDigest.isEqual(hash.getBytes(StandardCharsets.UTF_8), expected);
+            mainHandler.post(() -> {
+                if (isFinishing()) {
+                    return;
+                }
+                if (valid) {
+                    onUnlocked();
+                    return;
+                }
+                failedAttempts++;
+                if (failedAttempts >= MAX_FAILED_ATTEMPTS) {
+                    cancel();
+                    return;
+                }
+                password.setError(getString(R.string.unlock_invalid));
+                submit.setEnabled(true);
+            });
+        });
+    }
+
+    private void unlockWithBiometric() {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.P || vault == null) {
+            return;
+        }
+        if (biometricCancel != null) {
+            biometricCancel.cancel();
+        }
+        biometricCancel = new CancellationSignal();
+        BiometricPrompt prompt = new BiometricPrompt.Builder(this)
+                .setTitle(getString(R.string.mp_title))
+                .setSubtitle(session.domain)
+                // back to the master password form
+                .setNegativeButton(getString(R.string.cancel), mainHandler::post,
+                        (dialog, which) -> showPasswordForm())
+                .build();
+        prompt.authenticate(biometricCancel, mainHandler::post, new BiometricPrompt.AuthenticationCallback() {
+            @Override
+            public void onAuthenticationSucceeded(BiometricPrompt.AuthenticationResult result) {
+                biometricCancel = null;
+                if (!isFinishing()) {
+                    onUnlocked();
+                }
+            }
+
+            @Override
+            public void onAuthenticationError(int errorCode, CharSequence errString) {
+                // locked out, no enrolled biometric, dismissed...: the master password still works
+                showPasswordForm();
+            }
+        });
+    }
+
+    private void showPasswordForm() {
+        biometricCancel = null;
+        if (isFinishing()) {
+            return;
+        }
+        form.setVisibility(View.VISIBLE);
+        password.requestFocus();
+    }
+
+    private void onUnlocked() {
+        form.setVisibility(View.GONE);
+        if (itemId != null) {
+            AutofillItem item = vault.credentials.findById(itemId);
+            if (item != null) {
+                reply(item);
+                return;
+            }
+        }
+
+        List<AutofillItem> items = vault.credentials.find(session.uri);
+        Utils.RankCredentials(items);
+        findViewById(R.id.unlock_items).setVisibility(View.VISIBLE);
+        findViewById(R.id.unlock_empty).setVisibility(items.isEmpty() ? View.VISIBLE : View.GONE);
+        ListView list = findViewById(R.id.unlock_list);
+        list.setAdapter(new ItemAdapter(this, items));
+        list.setOnItemClickListener((parent, view, position, id) -> reply(items.get(position)));
+    }
+
+    private void reply(@NonNull AutofillItem item) {
+        setResult(RESULT_OK, Utils.BuildAuthenticationReply(this, token, session, item));
+        finish();
+    }
+
+    /**
+     * Continue in the app, its result is relayed to the framework in {@link #onActivityResult}.
+     */
+    private void openApp() {
+        if (biometricCancel != null) {
+            biometricCancel.cancel();
+        }
+        Intent intent = itemId != null
+                ? RNAutofillServiceAndroid.newIntentForFillResponse(this, token, itemId)
+                : RNAutofillServiceAndroid.newIntentForResponse(this, token, session.domain);
+        startActivityForResult(intent, REQUEST_OPEN_APP);
+    }
+
+    @Override
+    protected void onActivityResult(int requestCode, int resultCode, @Nullable Intent data) {
+        super.onActivityResult(requestCode, resultCode, data);
+        if (requestCode == REQUEST_OPEN_APP) {
+            setResult(resultCode, data);
+            finish();
+        }
+    }
+
+    private void cancel() {
+        setResult(RESULT_CANCELED);
+        finish();
+    }
+
+    private static class ItemAdapter extends ArrayAdapter<AutofillItem> {
+        ItemAdapter(Context context, List<AutofillItem> items) {
+            super(context, R.layout.list_item, R.id.login_name, items);
+        }
+
+        @NonNull
+        @Override
+        public View getView(int position, @Nullable View convertView, @NonNull ViewGroup parent) {
+            View view = super.getView(position, convertView, parent);
+            AutofillItem item = getItem(position);
+            TextView name = view.findViewById(R.id.login_name);
+            TextView username = view.findViewById(R.id.login_uri);
+            name.setText(item.getName());
+            username.setText(item.getUserName());
+            return view;
+        }
+    }
+}
@@ -5,6 +5,7 @@ import android.app.PendingIntent;
 import android.app.assist.AssistStructure;
 import android.app.slice.Slice;
 import android.content.Context;
+import android.content.Intent;
 import android.content.res.Resources;
 import android.graphics.BlendMode;
 import android.graphics.drawable.Icon;
@@ -24,10 +25,7 @@ import android.view.inputmethod.InlineSuggestionsRequest;
 import android.widget.RemoteViews;
 import android.widget.inline.InlinePresentationSpec;
 
-import javax.crypto.SecretKeyFactory;
-import javax.crypto.spec.PBEKeySpec;
-import java.security.NoSuchAlgorithmException;
-import java.security.spec.InvalidKeySpecException;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.Base64;
 
@@ -38,16 +36,25 @@ import androidx.autofill.inline.UiVersions;
 import androidx.autofill.inline.v1.InlineSuggestionUi;
 
 import com.tencent.mmkv.MMKV;
+import com.cystack.locker.selfhost.BuildConfig;
 import com.cystack.locker.selfhost.R;
-import com.cystack.locker.selfhost.RNAutofillServiceAndroid;
+import com.cystack.locker.selfhost.crypto.Pbkdf2;
 
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Locale;
 
 @RequiresApi(api = Build.VERSION_CODES.O)
 public class Utils {
     private static MMKV kv;
+    // Item datasets offered when the IME gives no inline suggestion limit
+    private static final int MAX_ITEM_DATASETS = 10;
+    private static final String USAGE_COUNT_KEY = "usage.count:";
+    private static final String USAGE_LAST_KEY = "usage.last:";
+    private static final long USAGE_HALF_LIFE_MS = 14L * 24 * 60 * 60 * 1000;
     // The URLs are blacklisted from autofilling
     public static HashSet<String> BlacklistedUris = new HashSet<String>(
             Arrays.asList("com.android.settings",
@@ -150,6 +157,106 @@ public class Utils {
         return value == null || value.trim().isEmpty();
     }
 
+    // Second level labels commonly registered under a country code TLD (co.uk, com.vn...)
+    private static final HashSet<String> CountryCodeSecondLevels = new HashSet<String>(
+            Arrays.asList("ac", "co", "com", "edu", "gov", "net", "org", "or", "ne", "go"));
+
+    /**
+     * Extract the lower-cased host of an uri, the uri may have no scheme (e.g. "example.com/login").
+     */
+    @Nullable
+    public static String getHost(@Nullable String uri) {
+        if (uri == null) {
+            return null;
+        }
+        String value = uri.trim();
+        int start = value.indexOf("://");
+        start = start >= 0 ? start + 3 : 0;
+        int end = value.length();
+        for (int i = start; i < end; i++) {
+            char c = value.charAt(i);
+            if (c == '/' || c == '?' || c == '#') {
+                end = i;
+                break;
+            }
+        }
+        int userInfo = value.lastIndexOf('@', end - 1);
+        if (userInfo >= start) {
+            start = userInfo + 1;
+        }
+        if (start < end && value.charAt(start) == '[') {
+            int close = value.indexOf(']', start);
+            if (close > 0 && close < end) {
+                end = close + 1;
+            }
+        } else {
+            int port = value.indexOf(':', start);
+            if (port >= 0 && port < end) {
+                end = port;
+            }
+        }
+        if (start >= end) {
+            return null;
+        }
+        String host = value.substring(start, end).toLowerCase(Locale.ROOT);
+        if (host.endsWith(".")) {
+            host = host.substring(0, host.length() - 1);
+        }
+        return host.isEmpty() ? null : host;
+    }
+
+    /**
+     * The registrable domain (eTLD+1) of a host according to the bundled Public Suffix List
+     * (accounts.example.co.uk -> example.co.uk), see {@link PublicSuffixes}.
+     * IP addresses and single label hosts are returned as is.
+     */
+    @Nullable
+    public static String getRegistrableDomain(@Nullable String host) {
+        if (isNullOrWhiteSpace(host)) {
+            return null;
+        }
+        if (host.indexOf(':') >= 0 || isIPv4(host)) {
+            return host;
+        }
+        PublicSuffixes suffixes = PublicSuffixes.get();
+        if (suffixes != null) {
+            return suffixes.getRegistrableDomain(host);
+        }
+        return approximateRegistrableDomain(host);
+    }
+
+    /**
+     * Without the suffix list: the last two labels, or three when the second level is a generic
+     * label under a country code.
+     */
+    private static String approximateRegistrableDomain(String host) {
+        int last = host.lastIndexOf('.');
+        if (last <= 0) {
+            return host;
+        }
+        int second = host.lastIndexOf('.', last - 1);
+        if (second < 0) {
+            return host;
+        }
+        String topLevel = host.substring(last + 1);
+        String secondLevel = host.substring(second + 1, last);
+        if (topLevel.length() == 2 && CountryCodeSecondLevels.contains(secondLevel)) {
+            int third = host.lastIndexOf('.', second - 1);
+            return host.substring(third + 1);
+        }
+        return host.substring(second + 1);
+    }
+
+    private static boolean isIPv4(String host) {
+        for (int i = 0; i < host.length(); i++) {
+            char c = host.charAt(i);
+            if (c != '.' && (c < '0' || c > '9')) {
+                return false;
+            }
+        }
+        return true;
+    }
+
     public static void InitCredentialsStore(Context context, String id, String encKey) {
         if (context == null)
             return;
@@ -187,30 +294,23 @@ public class Utils {
         kv.clearAll();
     }
 
-    private static String pbkdf2(String password, String salt, int iterations, int keyLength)
-            throws NoSuchAlgorithmException, InvalidKeySpecException {
-        char[] chars = password.toCharArray();
-
-        PBEKeySpec spec = new PBEKeySpec(chars, salt.getBytes(), iterations, keyLength * 8);
-        SecretKeyFactory skf = SecretKeyFactory.getInstance("PBKDF2WithHmacSHA256");
-        byte[] hash = skf.generateSecret(spec).getEncoded();
+    private static String pbkdf2(String password, String salt, int iterations, int keyLength) {
+        byte[] hash = Pbkdf2.deriveSha256(password.getBytes(StandardCharsets.UTF_8),
+                salt.getBytes(StandardCharsets.UTF_8), iterations, keyLength);
         return Base64.getEncoder().encodeToString(hash);
     }
 
     @Nullable
     public static String makeKeyHash(String masterPassword, String email) {
-        try {
-            String key = pbkdf2(masterPassword, email, 100000, 32);
-            String keyHash = pbkdf2(key, masterPassword, 3, 32);
-            return keyHash;
-        } catch (NoSuchAlgorithmException | InvalidKeySpecException e) {
-            e.printStackTrace();
-        }
-        return null;
+        String key = pbkdf2(masterPassword, email, 100000, 32);
+        return pbkdf2(key, masterPassword, 3, 32);
     }
 
+    /**
+     * @param matches - credentials of the vault matching the request, see {@link CredentialSource#find(String)}
+     */
     public static FillResponse.Builder BuildFillResponse(ArrayList<Field> fields, @NonNull FillRequest request,
-            String domain, Context context) {
+            String domain, String uri, @NonNull List<AutofillItem> matches, Context context) {
 
         FillResponse.Builder response = new FillResponse.Builder();
 
@@ -226,46 +326,108 @@ public class Utils {
                 inlineMaxSuggestedCount = inlineSuggestionsRequest.getMaxSuggestionCount();
             }
 
-            Log.d("Inline-Autofill", "inlinePresentationSpecsCount: " + inlinePresentationSpecsCount);
-            Log.d("Inline-Autofill", "inlineMaxSuggestedCount: " + inlineMaxSuggestedCount);
-        }
-
-        InlinePresentationSpec itemInlinePresentationSpec = null;
-        InlinePresentationSpec lockerInlinePresentationSpec = null;
-        if (inlinePresentationSpecs != null) {
-            if (inlinePresentationSpecsCount > 2) {
-                itemInlinePresentationSpec = inlinePresentationSpecs.get(0);
+            if (BuildConfig.DEBUG) {
+                Log.d("Inline-Autofill", "inlinePresentationSpecsCount: " + inlinePresentationSpecsCount);
+                Log.d("Inline-Autofill", "inlineMaxSuggestedCount: " + inlineMaxSuggestedCount);
             }
-            lockerInlinePresentationSpec = inlinePresentationSpecs.get(inlinePresentationSpecsCount - 1);
         }
 
+        // The item last filled on this domain and every other match of the vault, best ranked first
+        ArrayList<AutofillItem> candidates = new ArrayList<>(matches.size() + 1);
+        HashSet<String> addedIds = new HashSet<>();
         AutofillItem storedItem = GetCredential(domain);
         if (storedItem != null) {
-            response.addDataset(
-                    BuildDataSetWithAuthen(fields, storedItem, itemInlinePresentationSpec, domain, context));
+            addedIds.add(storedItem.getId());
+            candidates.add(storedItem);
+        }
+        for (AutofillItem item : matches) {
+            if (addedIds.add(item.getId())) {
+                candidates.add(item);
+            }
+        }
+        RankCredentials(candidates);
+
+        // Keep one suggestion for the Locker dataset
+        int maxItems = MAX_ITEM_DATASETS;
+        if (inlineMaxSuggestedCount > 0) {
+            maxItems = Math.min(maxItems, inlineMaxSuggestedCount - 1);
+        }
+        int itemCount = Math.min(candidates.size(), maxItems);
+        // every dataset of the response completes the same session
+        String session = FillSessions.create(context, fields, domain, uri);
+        for (int i = 0; i < itemCount; i++) {
+            response.addDataset(BuildDataSetWithAuthen(fields, candidates.get(i),
+                    getInlinePresentationSpec(inlinePresentationSpecs, i), session, context));
         }
 
-        response.addDataset(BuildDataSetLocker(fields, lockerInlinePresentationSpec, domain, context));
+        response.addDataset(BuildDataSetLocker(fields,
+                getInlinePresentationSpec(inlinePresentationSpecs, itemCount), domain, session, context));
 
         return response;
     }
 
+    /**
+     * The IME gives one spec per suggestion position, the last one applies to every remaining suggestion.
+     */
+    @Nullable
+    private static InlinePresentationSpec getInlinePresentationSpec(
+            @Nullable List<InlinePresentationSpec> inlinePresentationSpecs, int position) {
+        if (inlinePresentationSpecs == null || inlinePresentationSpecs.isEmpty()) {
+            return null;
+        }
+        return inlinePresentationSpecs.get(Math.min(position, inlinePresentationSpecs.size() - 1));
+    }
+
+    /**
+     * Remember that a credential was filled, used to rank the datasets of the next responses.
+     */
+    public static void RecordCredentialUse(@Nullable String id) {
+        if (kv == null || isNullOrWhiteSpace(id))
+            return;
+        kv.encode(USAGE_COUNT_KEY + id, kv.decodeInt(USAGE_COUNT_KEY + id, 0) + 1);
+        kv.encode(USAGE_LAST_KEY + id, System.currentTimeMillis());
+    }
+
+    /**
+     * Sort credentials by use frequency, decayed by the time since their last use.
+     * The sort is stable so credentials never used keep the index order (exact host matches first).
+     */
+    public static void RankCredentials(List<AutofillItem> items) {
+        if (kv == null || items.size() < 2)
+            return;
+        long now = System.currentTimeMillis();
+        final HashMap<String, Double> scores = new HashMap<>(items.size() * 2);
+        for (AutofillItem item : items) {
+            String id = item.getId();
+            int count = kv.decodeInt(USAGE_COUNT_KEY + id, 0);
+            double score = 0;
+            if (count > 0) {
+                long age = Math.max(0, now - kv.decodeLong(USAGE_LAST_KEY + id, 0));
+                score = count * Math.pow(0.5, (double) age / USAGE_HALF_LIFE_MS);
+            }
+            scores.put(id, score);
+        }
+        Collections.sort(items, (a, b) -> Double.compare(scores.get(b.getId()), scores.get(a.getId())));
+    }
+
+    /**
+     * @param session - token of the {@link FillSessions} session holding the fields and domain
+     */
     public static Dataset BuildDataSetLocker(ArrayList<Field> fields, InlinePresentationSpec inlinePresentationSpec,
-            String domain, Context context) {
+            String domain, String session, Context context) {
         RemoteViews presentation = new RemoteViews(context.getPackageName(), R.layout.remote_locker_app);
 
-        PendingIntent authentication = RNAutofillServiceAndroid.newIntentSenderForResponse(context, fields, domain);
+        PendingIntent authentication = UnlockFillActivity.newIntentSender(context, session, null);
 
         return BuildlockedDataset(fields, null, presentation, authentication, inlinePresentationSpec, context);
     }
 
     public static Dataset BuildDataSetWithAuthen(ArrayList<Field> fields, AutofillItem data,
-            InlinePresentationSpec inlinePresentationSpec, String domain, Context context) {
+            InlinePresentationSpec inlinePresentationSpec, String session, Context context) {
         RemoteViews presentation = new RemoteViews(context.getPackageName(), android.R.layout.simple_list_item_1);
         presentation.setTextViewText(android.R.id.text1, data.getName());
 
-        PendingIntent authentication = RNAutofillServiceAndroid.newIntentSenderForFillResponse(context, fields, domain,
-                data.getId());
+        PendingIntent authentication = UnlockFillActivity.newIntentSender(context, session, data.getId());
 
         return BuildlockedDataset(fields, data, presentation, authentication, inlinePresentationSpec, context);
     }
@@ -277,6 +439,26 @@ public class Utils {
         return dataset.build();
     }
 
+    /**
+     * Result of an authenticated dataset: fill the fields of the session with the picked item. The item
+     * is remembered as the last one filled on the domain and the session is closed.
+     */
+    public static Intent BuildAuthenticationReply(@NonNull Context context, @Nullable String token,
+            @NonNull FillSessions.Session session, @Nullable AutofillItem data) {
+        RemoteViews presentation = new RemoteViews(context.getPackageName(), R.layout.remote_locker_app);
+        Dataset response = BuildUnlockDataset(session.fields, data, presentation);
+
+        SetCredential(session.domain, data);
+        if (data != null) {
+            RecordCredentialUse(data.getId());
+        }
+        FillSessions.remove(context, token);
+
+        Intent replyIntent = new Intent();
+        replyIntent.putExtra(AutofillManager.EXTRA_AUTHENTICATION_RESULT, response);
+        return replyIntent;
+    }
+
     static Dataset BuildlockedDataset(@NonNull ArrayList<Field> fields, AutofillItem data,
             RemoteViews presentation,
             PendingIntent authentication,
@@ -284,6 +466,9 @@ public class Utils {
             Context context) {
 
         Dataset.Builder dataset = newDataset(fields, data, presentation);
+        if (data != null && data.getId() != null) {
+            dataset.setId(data.getId());
+        }
         dataset.setAuthentication(authentication.getIntentSender());
         if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.R) {
             InlinePresentation inlinePresentation = buildInlinePresentation(inlinePresentationSpec, authentication,
@@ -0,0 +1,549 @@
+package com.cystack.locker.selfhost.autofill;
+
+import android.content.Context;
+import android.security.keystore.KeyGenParameterSpec;
+import android.security.keystore.KeyProperties;
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import com.cystack.locker.selfhost.BuildConfig;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.KeyStore;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import javax.crypto.Cipher;
+import javax.crypto.KeyGenerator;
+import javax.crypto.SecretKey;
+import javax.crypto.spec.GCMParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+
+/**
+ * Binary, memory-mapped copy of the autofill vault.
+ *
+ * Decrypting and parsing the keychain entry costs time proportional to the vault size, the snapshot
+ * lets a cold autofill process open the vault in constant time and decrypt only the records a fill
+ * request matches. Each record is sealed on its own with AES-GCM under a data key drawn for the snapshot;
+ * the data key is stored in the header wrapped by an Android Keystore key, so opening the snapshot costs
+ * one keystore operation and the records decrypt in process.
+ *
+ * Layout, big endian:
+ * <pre>
+ * header        magic, version, SHA-256 of the keychain entry, record/bucket/key counts, 12 bytes IV + wrapped
+ *               data key (HEADER_SIZE bytes)
+ * bucket table  (bucketCount + 1) ints, first key entry of each bucket
+ * key entries   keyCount x (int key hash, int record number), grouped by bucket
+ * offset table  (recordCount + 1) ints, record r spans [offset[r], offset[r + 1])
+ * records       12 bytes IV + GCM ciphertext; record 0 holds the account, the others one credential each
+ * </pre>
+ * Lookup keys are the ones of {@link CredentialIndex} plus "i:" + id. Key hashes may collide, so a
+ * decrypted record is only returned once its own keys were checked against the looked up key.
+ */
+public class VaultSnapshot implements CredentialSource {
+    private static final String TAG = "VaultSnapshot";
+
+    private static final String FILE_NAME = "autofill_vault.snapshot";
+    private static final String KEY_ALIAS = "locker_autofill_snapshot";
+    private static final String KEYSTORE = "AndroidKeyStore";
+    private static final String TRANSFORMATION = "AES/GCM/NoPadding";
+    private static final int IV_LENGTH = 12;
+    private static final int TAG_LENGTH_BITS = 128;
+
+    private static final int MAGIC = 0x4C4B5653; // "LKVS"
+    // 2: registrable domains from the Public Suffix List
+    // 3: records sealed with a wrapped data key
+    private static final int VERSION = 3;
+    private static final int SOURCE_HASH_LENGTH = 32;
+    private static final int DATA_KEY_LENGTH = 32;
+    private static final int WRAPPED_KEY_OFFSET = 52;
+    private static final int WRAPPED_KEY_LENGTH = IV_LENGTH + DATA_KEY_LENGTH + TAG_LENGTH_BITS / 8;
+    private static final int HEADER_SIZE = 128;
+    // Associated data record number of the wrapped data key
+    private static final int DATA_KEY_RECORD = -1;
+
+    private static final String ID_KEY = "i:";
+
+    private final MappedByteBuffer buffer;
+    private final byte[] sourceHash;
+    private final SecretKey key;
+    private final int recordCount;
+    private final int bucketCount;
+    private final int bucketTableOffset;
+    private final int keyEntriesOffset;
+    private final int offsetTableOffset;
+
+    private VaultSnapshot(MappedByteBuffer buffer, byte[] sourceHash, SecretKey key,
+                          int recordCount, int bucketCount, int keyCount) {
+        this.buffer = buffer;
+        this.sourceHash = sourceHash;
+        this.key = key;
+        this.recordCount = recordCount;
+        this.bucketCount = bucketCount;
+        this.bucketTableOffset = HEADER_SIZE;
+        this.keyEntriesOffset = bucketTableOffset + 4 * (bucketCount + 1);
+        this.offsetTableOffset = keyEntriesOffset + 8 * keyCount;
+    }
+
+    /**
+     * Account fields of the vault, kept in record 0.
+     */
+    public static class Meta {
+        public String email;
+        public String hashPass;
+        public String avatar;
+        public String language;
+        public boolean faceIdEnabled;
+        public boolean isLoggedInPw;
+        public boolean isDarkTheme;
+    }
+
+    /**
+     * Map the snapshot of the app.
+     * @param sourceHash - fingerprint of the current keychain entry, see AutofillDataKeychain.getSourceHash
+     * @return null when there is no snapshot, it was written for another keychain entry or it is unreadable
+     */
+    @Nullable
+    public static VaultSnapshot open(@NonNull Context context, @NonNull byte[] sourceHash) {
+        File file = getFile(context);
+        if (!file.exists()) {
+            return null;
+        }
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r");
+             FileChannel channel = raf.getChannel()) {
+            long size = channel.size();
+            if (size < HEADER_SIZE || size > Integer.MAX_VALUE) {
+                return null;
+            }
+            // The mapping stays valid once the channel is closed
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+            if (buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION) {
+                return null;
+            }
+            byte[] fileHash = new byte[SOURCE_HASH_LENGTH];
+            ByteBuffer header = buffer.duplicate();
+            header.position(8);
+            header.get(fileHash);
+            if (!Arrays.equals(fileHash, sourceHash)) {
+                if (BuildConfig.DEBUG) {
+                    Log.d(TAG, "snapshot is stale");
+                }
+                return null;
+            }
+            int recordCount = buffer.getInt(40);
+            int bucketCount = buffer.getInt(44);
+            int keyCount = buffer.getInt(48);
+            if (recordCount < 1 || bucketCount < 1 || Integer.bitCount(bucketCount) != 1 || keyCount < 0) {
+                return null;
+            }
+            long tablesEnd = HEADER_SIZE + 4L * (bucketCount + 1) + 8L * keyCount + 4L * (recordCount + 1);
+            if (tablesEnd > size) {
+                return null;
+            }
+            SecretKey wrappingKey = getKey(false);
+            if (wrappingKey == null) {
+                return null;
+            }
+            byte[] wrapped = new byte[WRAPPED_KEY_LENGTH];
+            header.position(WRAPPED_KEY_OFFSET);
+            header.get(wrapped);
+            // The only keystore operation of the snapshot, records decrypt with the data key
+            byte[] dataKey = unseal(wrappingKey, fileHash, DATA_KEY_RECORD, wrapped);
+            SecretKey key = new SecretKeySpec(dataKey, KeyProperties.KEY_ALGORITHM_AES);
+            Arrays.fill(dataKey, (byte) 0);
+            VaultSnapshot snapshot = new VaultSnapshot(buffer, fileHash, key, recordCount, bucketCount, keyCount);
+            if (snapshot.recordOffset(recordCount) > size) {
+                return null;
+            }
+            return snapshot;
+        } catch (IOException | GeneralSecurityException e) {
+            Log.e(TAG, "Cannot open snapshot", e);
+            return null;
+        }
+    }
+
+    @Nullable
+    public Meta getMeta() {
+        byte[] plain = decryptRecord(0);
+        if (plain == null) {
+            return null;
+        }
+        try (DataInputStream in = new DataInputStream(new ByteArrayInputStream(plain))) {
+            Meta meta = new Meta();
+            meta.email = readString(in);
+            meta.hashPass = readString(in);
+            meta.avatar = readString(in);
+            meta.language = readString(in);
+            meta.faceIdEnabled = in.readBoolean();
+            meta.isLoggedInPw = in.readBoolean();
+            meta.isDarkTheme = in.readBoolean();
+            return meta;
+        } catch (IOException e) {
+            Log.e(TAG, "Corrupted account record", e);
+            return null;
+        }
+    }
+
+    @Override
+    @NonNull
+    public List<AutofillItem> find(@Nullable String uri) {
+        List<String> keys = CredentialIndex.lookupKeysOf(uri);
+        if (keys.isEmpty()) {
+            return Collections.emptyList();
+        }
+        // host matches first, then the rest of the registrable domain, or the app then its websites
+        ArrayList<AutofillItem> matches = new ArrayList<>();
+        Set<Integer> seen = new HashSet<>();
+        for (String lookupKey : keys) {
+            for (int record : lookup(lookupKey)) {
+                if (seen.contains(record)) {
+                    continue;
+                }
+                AutofillItem item = readItem(record);
+                if (item != null && CredentialIndex.keysOf(item.getUri()).contains(lookupKey)) {
+                    seen.add(record);
+                    matches.add(item);
+                }
+            }
+        }
+        return matches;
+    }
+
+    @Override
+    @Nullable
+    public AutofillItem findById(@Nullable String id) {
+        if (id == null) {
+            return null;
+        }
+        for (int record : lookup(ID_KEY + id)) {
+            AutofillItem item = readItem(record);
+            if (item != null && id.equals(item.getId())) {
+                return item;
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public int size() {
+        return recordCount - 1;
+    }
+
+    /**
+     * @return the records with a key hashing like lookupKey, in file order
+     */
+    private List<Integer> lookup(String lookupKey) {
+        int hash = hash(lookupKey);
+        int bucket = bucketOf(hash, bucketCount);
+        int start = buffer.getInt(bucketTableOffset + 4 * bucket);
+        int end = buffer.getInt(bucketTableOffset + 4 * (bucket + 1));
+        if (start >= end) {
+            return Collections.emptyList();
+        }
+        List<Integer> records = new ArrayList<>(end - start);
+        for (int i = start; i < end; i++) {
+            int entry = keyEntriesOffset + 8 * i;
+            if (buffer.getInt(entry) == hash) {
+                int record = buffer.getInt(entry + 4);
+                if (record > 0 && record < recordCount) {
+                    records.add(record);
+                }
+            }
+        }
+        return records;
+    }
+
+    @Nullable
+    private AutofillItem readItem(int record) {
+        byte[] plain = decryptRecord(record);
+        if (plain == null) {
+            return null;
+        }
+        try (DataInputStream in = new DataInputStream(new ByteArrayInputStream(plain))) {
+            String id = readString(in);
+            String username = readString(in);
+            String password = readString(in);
+            String name = readString(in);
+            String uri = readString(in);
+            return new AutofillItem(id, username, password, name, uri);
+        } catch (IOException e) {
+            Log.e(TAG, "Corrupted record " + record, e);
+            return null;
+        }
+    }
+
+    private int recordOffset(int record) {
+        return buffer.getInt(offsetTableOffset + 4 * record);
+    }
+
+    @Nullable
+    private byte[] decryptRecord(int record) {
+        int start = recordOffset(record);
+        int end = recordOffset(record + 1);
+        if (start < 0 || end > buffer.capacity() || end - start <= IV_LENGTH) {
+            return null;
+        }
+        byte[] sealed = new byte[end - start];
+        ByteBuffer view = buffer.duplicate();
+        view.position(start);
+        view.get(sealed);
+        try {
+            return unseal(key, sourceHash, record, sealed);
+        } catch (GeneralSecurityException e) {
+            Log.e(TAG, "Cannot decrypt record " + record, e);
+            return null;
+        }
+    }
+
+    /**
+     * Write the snapshot of a freshly decrypted vault, replacing the previous one atomically.
+     * Both processes write it, each through its own temporary file, the last rename wins.
+     */
+    public static void write(@NonNull Context context, @NonNull AutofillDataKeychain vault) {
+        if (vault.sourceHash == null) {
+            return;
+        }
+        long start = System.currentTimeMillis();
+        File file = getFile(context);
+        File tmp = null;
+        try {
+            tmp = File.createTempFile(file.getName(), ".tmp", file.getParentFile());
+            SecretKey wrappingKey = getKey(true);
+            byte[] data = encode(vault, wrappingKey);
+            try (FileOutputStream out = new FileOutputStream(tmp)) {
+                out.write(data);
+                out.getFD().sync();
+            }
+            if (!tmp.renameTo(file)) {
+                throw new IOException("Cannot replace " + file);
+            }
+            if (BuildConfig.DEBUG) {
+                Log.d(TAG, "snapshot of " + vault.passwords.size() + " items written in "
+                        + (System.currentTimeMillis() - start) + "ms");
+            }
+        } catch (IOException | GeneralSecurityException e) {
+            Log.e(TAG, "Cannot write snapshot", e);
+            if (tmp != null) {
+                tmp.delete();
+            }
+        }
+    }
+
+    public static void delete(@NonNull Context context) {
+        File file = getFile(context);
+        if (file.exists() && !file.delete()) {
+            Log.e(TAG, "Cannot delete snapshot");
+        }
+    }
+
+    private static byte[] encode(AutofillDataKeychain vault, SecretKey wrappingKey)
+            throws IOException, GeneralSecurityException {
+        List<AutofillItem> items = vault.passwords;
+        int recordCount = items.size() + 1;
+        byte[] sourceHash = vault.sourceHash;
+
+        // Draw the data key of this snapshot, the keystore only wraps it
+        KeyGenerator generator = KeyGenerator.getInstance(KeyProperties.KEY_ALGORITHM_AES);
+        generator.init(DATA_KEY_LENGTH * 8);
+        SecretKey key = generator.generateKey();
+        byte[] dataKey = key.getEncoded();
+        byte[] wrapped = seal(wrappingKey, sourceHash, DATA_KEY_RECORD, dataKey);
+        Arrays.fill(dataKey, (byte) 0);
+
+        // Seal every record
+        byte[][] records = new byte[recordCount][];
+        records[0] = seal(key, sourceHash, 0, encodeMeta(vault));
+        for (int i = 0; i < items.size(); i++) {
+            records[i + 1] = seal(key, sourceHash, i + 1, encodeItem(items.get(i)));
+        }
+
+        // Hash every lookup key into its bucket
+        ArrayList<int[]> entries = new ArrayList<>(items.size() * 3);
+        for (int i = 0; i < items.size(); i++) {
+            AutofillItem item = items.get(i);
+            if (item.getId() != null) {
+                entries.add(new int[]{hash(ID_KEY + item.getId()), i + 1});
+            }
+            for (String lookupKey : CredentialIndex.keysOf(item.getUri())) {
+                entries.add(new int[]{hash(lookupKey), i + 1});
+            }
+        }
+        int bucketCount = Integer.highestOneBit(Math.max(1, entries.size()) * 2 - 1);
+        int[] bucketSizes = new int[bucketCount];
+        for (int[] entry : entries) {
+            bucketSizes[bucketOf(entry[0], bucketCount)]++;
+        }
+        int[] bucketStarts = new int[bucketCount + 1];
+        for (int b = 0; b < bucketCount; b++) {
+            bucketStarts[b + 1] = bucketStarts[b] + bucketSizes[b];
+        }
+        int[] sortedEntries = new int[entries.size() * 2];
+        int[] fill = Arrays.copyOf(bucketStarts, bucketCount);
+        // entries keep their record order inside a bucket
+        for (int[] entry : entries) {
+            int position = fill[bucketOf(entry[0], bucketCount)]++;
+            sortedEntries[position * 2] = entry[0];
+            sortedEntries[position * 2 + 1] = entry[1];
+        }
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+        out.write(sourceHash, 0, SOURCE_HASH_LENGTH);
+        out.writeInt(recordCount);
+        out.writeInt(bucketCount);
+        out.writeInt(entries.size());
+        out.write(wrapped);
+        while (out.size() < HEADER_SIZE) {
+            out.writeByte(0);
+        }
+        for (int bucketStart : bucketStarts) {
+            out.writeInt(bucketStart);
+        }
+        for (int value : sortedEntries) {
+            out.writeInt(value);
+        }
+        int offset = out.size() + 4 * (recordCount + 1);
+        for (byte[] record : records) {
+            out.writeInt(offset);
+            offset += record.length;
+        }
+        out.writeInt(offset);
+        for (byte[] record : records) {
+            out.write(record);
+        }
+        out.flush();
+        return bytes.toByteArray();
+    }
+
+    private static byte[] encodeMeta(AutofillDataKeychain vault) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        writeString(out, vault.email);
+        writeString(out, vault.hashPass);
+        writeString(out, vault.avatar);
+        writeString(out, vault.language);
+        out.writeBoolean(vault.faceIdEnabled);
+        out.writeBoolean(vault.isLoggedInPw);
+        out.writeBoolean(vault.isDarkTheme);
+        out.flush();
+        return bytes.toByteArray();
+    }
+
+    private static byte[] encodeItem(AutofillItem item) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        writeString(out, item.getId());
+        writeString(out, item.getUserName());
+        writeString(out, item.getPassword());
+        writeString(out, item.getName());
+        writeString(out, item.getUri());
+        out.flush();
+        return bytes.toByteArray();
+    }
+
+    private static byte[] seal(SecretKey key, byte[] sourceHash, int record, byte[] plain)
+            throws GeneralSecurityException {
+        Cipher cipher = Cipher.getInstance(TRANSFORMATION);
+        // The provider picks a fresh random IV for every record
+        cipher.init(Cipher.ENCRYPT_MODE, key);
+        cipher.updateAAD(associatedData(sourceHash, record));
+        byte[] iv = cipher.getIV();
+        byte[] sealed = cipher.doFinal(plain);
+        byte[] result = new byte[IV_LENGTH + sealed.length];
+        System.arraycopy(iv, 0, result, 0, IV_LENGTH);
+        System.arraycopy(sealed, 0, result, IV_LENGTH, sealed.length);
+        return result;
+    }
+
+    private static byte[] unseal(SecretKey key, byte[] sourceHash, int record, byte[] sealed)
+            throws GeneralSecurityException {
+        Cipher cipher = Cipher.getInstance(TRANSFORMATION);
+        cipher.init(Cipher.DECRYPT_MODE, key, new GCMParameterSpec(TAG_LENGTH_BITS, sealed, 0, IV_LENGTH));
+        cipher.updateAAD(associatedData(sourceHash, record));
+        return cipher.doFinal(sealed, IV_LENGTH, sealed.length - IV_LENGTH);
+    }
+
+    // A record only decrypts at its own position of the snapshot it was written for
+    private static byte[] associatedData(byte[] sourceHash, int record) {
+        return ByteBuffer.allocate(SOURCE_HASH_LENGTH + 4).put(sourceHash, 0, SOURCE_HASH_LENGTH).putInt(record).array();
+    }
+
+    private static int hash(String lookupKey) {
+        // FNV-1a over UTF-8, stable across releases unlike relying on runtime hash codes
+        int hash = 0x811C9DC5;
+        for (byte b : lookupKey.getBytes(StandardCharsets.UTF_8)) {
+            hash ^= b & 0xFF;
+            hash *= 0x01000193;
+        }
+        return hash;
+    }
+
+    private static int bucketOf(int hash, int bucketCount) {
+        return (hash ^ (hash >>> 16)) & (bucketCount - 1);
+    }
+
+    private static void writeString(DataOutputStream out, @Nullable String value) throws IOException {
+        if (value == null) {
+            out.writeInt(-1);
+            return;
+        }
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    @Nullable
+    private static String readString(DataInputStream in) throws IOException {
+        int length = in.readInt();
+        if (length < 0) {
+            return null;
+        }
+        byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static File getFile(Context context) {
+        return new File(context.getNoBackupFilesDir(), FILE_NAME);
+    }
+
+    @Nullable
+    private static SecretKey getKey(boolean create) throws GeneralSecurityException, IOException {
+        KeyStore keyStore = KeyStore.getInstance(KEYSTORE);
+        keyStore.load(null);
+        if (keyStore.containsAlias(KEY_ALIAS)) {
+            return (SecretKey) keyStore.getKey(KEY_ALIAS, null);
+        }
+        if (!create) {
+            return null;
+        }
+        KeyGenerator generator = KeyGenerator.getInstance(KeyProperties.KEY_ALGORITHM_AES, KEYSTORE);
+        generator.init(new KeyGenParameterSpec.Builder(KEY_ALIAS,
+                KeyProperties.PURPOSE_ENCRYPT | KeyProperties.PURPOSE_DECRYPT)
+                .setBlockModes(KeyProperties.BLOCK_MODE_GCM)
+                .setEncryptionPaddings(KeyProperties.ENCRYPTION_PADDING_NONE)
+                .setKeySize(256)
+                .build());
+        return generator.generateKey();
+    }
+}
@@ -0,0 +1,184 @@
+package com.cystack.locker.selfhost.autofill;
+
+import android.content.Context;
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import com.cystack.locker.selfhost.BuildConfig;
+
+import java.util.Arrays;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Loads the autofill vault off the service thread.
+ * Decrypting the keychain entry and building the credential index happen on a background thread,
+ * callers wait on the readiness future with their own deadline. When the snapshot written by the
+ * previous load still matches the keychain entry, it is mapped instead and nothing is decrypted upfront.
+ */
+public class VaultWarmup {
+    private static final String TAG = "VaultWarmup";
+
+    private static final ExecutorService executor = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "autofill-vault");
+        thread.setPriority(Thread.NORM_PRIORITY + 1);
+        return thread;
+    });
+
+    private static volatile Future<Vault> ready;
+    // keychain entry the current load was started for, see AutofillDataKeychain.getSourceHash
+    private static byte[] readyFor;
+
+    public static class Vault {
+        public final boolean isLoggedInPw;
+        @Nullable
+        public final CredentialSource credentials;
+        // account, to unlock the native autofill screens
+        @Nullable
+        public final String email;
+        @Nullable
+        public final String hashPass;
+        public final boolean faceIdEnabled;
+
+        Vault(boolean isLoggedInPw, @Nullable CredentialSource credentials, @Nullable String email,
+                @Nullable String hashPass, boolean faceIdEnabled) {
+            this.isLoggedInPw = isLoggedInPw;
+            this.credentials = credentials;
+            this.email = email;
+            this.hashPass = hashPass;
+            this.faceIdEnabled = faceIdEnabled;
+        }
+    }
+
+    /**
+     * Start loading the latest vault. The previous load, if any, is replaced.
+     */
+    @NonNull
+    public static synchronized Future<Vault> start(@NonNull Context context) {
+        final Context appContext = context.getApplicationContext();
+        readyFor = AutofillDataKeychain.getSourceHash(appContext);
+        ready = executor.submit(() -> load(appContext));
+        return ready;
+    }
+
+    /**
+     * Start loading only if no load was started yet, e.g. when the service was not connected in this process,
+     * or the app saved the vault again since the current load was started.
+     */
+    @NonNull
+    public static synchronized Future<Vault> ensureStarted(@NonNull Context context) {
+        if (ready == null || !Arrays.equals(readyFor, AutofillDataKeychain.getSourceHash(context))) {
+            return start(context);
+        }
+        return ready;
+    }
+
+    /**
+     * Open the credential store remembering the last filled items without waiting for the vault: it is
+     * already open when the current load is done, otherwise the account is read from the snapshot.
+     * @return false when neither is available, the caller has to wait for the vault
+     */
+    public static boolean initCredentialsStore(@NonNull Context context) {
+        byte[] sourceHash = AutofillDataKeychain.getSourceHash(context);
+        if (sourceHash == null) {
+            return false;
+        }
+        Future<Vault> future;
+        synchronized (VaultWarmup.class) {
+            future = Arrays.equals(readyFor, sourceHash) ? ready : null;
+        }
+        if (future != null && future.isDone()) {
+            Vault vault = get(future, 0);
+            if (vault != null) {
+                return vault.isLoggedInPw;
+            }
+        }
+        VaultSnapshot snapshot = VaultSnapshot.open(context, sourceHash);
+        VaultSnapshot.Meta meta = snapshot == null ? null : snapshot.getMeta();
+        if (meta == null || !meta.isLoggedInPw) {
+            return false;
+        }
+        Utils.InitCredentialsStore(context, meta.email, meta.hashPass);
+        return true;
+    }
+
+    /**
+     * Wait for the vault to be loaded.
+     * @return the vault, or null when it isn't ready within the timeout or failed to load
+     */
+    @Nullable
+    public static Vault await(long timeoutMs) {
+        Future<Vault> future = ready;
+        if (future == null) {
+            return null;
+        }
+        return get(future, timeoutMs);
+    }
+
+    @Nullable
+    private static Vault get(Future<Vault> future, long timeoutMs) {
+        try {
+            return future.get(timeoutMs, TimeUnit.MILLISECONDS);
+        } catch (TimeoutException e) {
+            Log.w(TAG, "Vault not ready after " + timeoutMs + "ms");
+        } catch (ExecutionException e) {
+            Log.e(TAG, "Cannot load vault", e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        return null;
+    }
+
+    private static Vault load(Context context) {
+        long start = System.currentTimeMillis();
+        String from = "snapshot";
+        Vault vault = loadSnapshot(context);
+        if (vault == null) {
+            from = "keychain";
+            vault = loadKeychain(context);
+        }
+        if (BuildConfig.DEBUG) {
+            Log.d(TAG, "vault loaded from " + from + " in " + (System.currentTimeMillis() - start) + "ms");
+        }
+        return vault;
+    }
+
+    @Nullable
+    private static Vault loadSnapshot(Context context) {
+        byte[] sourceHash = AutofillDataKeychain.getSourceHash(context);
+        if (sourceHash == null) {
+            return null;
+        }
+        VaultSnapshot snapshot = VaultSnapshot.open(context, sourceHash);
+        if (snapshot == null) {
+            return null;
+        }
+        VaultSnapshot.Meta meta = snapshot.getMeta();
+        if (meta == null || !meta.isLoggedInPw) {
+            return null;
+        }
+        Utils.InitCredentialsStore(context, meta.email, meta.hashPass);
+        return new Vault(true, snapshot, meta.email, meta.hashPass, meta.faceIdEnabled);
+    }
+
+    private static Vault loadKeychain(Context context) {
+        AutofillDataKeychain keyStore = new AutofillDataKeychain(context);
+        if (keyStore.isLoggedInPw) {
+            Utils.InitCredentialsStore(context, keyStore.email, keyStore.hashPass);
+            // Queued behind this load, so fill requests don't wait for it
+            executor.execute(() -> VaultSnapshot.write(context, keyStore));
+            return new Vault(true, keyStore.index, keyStore.email, keyStore.hashPass, keyStore.faceIdEnabled);
+        }
+        // signed out: nothing of the previous account stays in this process or on disk
+        Utils.RemoveAllCredential();
+        PendingSaves.clear(context);
+        VaultSnapshot.delete(context);
+        return new Vault(false, null, null, null, false);
+    }
+}
@@ -8,12 +8,11 @@ import android.view.View;
 import androidx.annotation.Nullable;
 import androidx.annotation.RequiresApi;
 
+import com.cystack.locker.selfhost.BuildConfig;
 import com.cystack.locker.selfhost.autofill.Field;
 import com.cystack.locker.selfhost.autofill.Utils;
 
 import java.util.ArrayList;
-import java.util.Arrays;
-import java.util.HashSet;
 import java.util.List;
 
 @RequiresApi(api = Build.VERSION_CODES.O)
@@ -22,57 +21,31 @@ public class FieldParser {
     public List<Field> fields  = new ArrayList<>();
     private List<Field> fillable = new ArrayList<>();
     private List<String> autofillIds = new ArrayList<>();
-    public HashSet<String> ignoreSearchTerms = new HashSet<String>(
-            Arrays.asList("search",
-                    "find",
-                    "container",
-                    "label",
-                    "recipient",
-                    "edit",
-                    "tìm kiếm"
-            )
-    );
-    private HashSet<String> passwordTerms = new HashSet<String>(
-            Arrays.asList("password",
-                    "pswd",
-                    "pwd",
-                    "mật Khẩu",
-                    "pass",
-                    "Mật "
-            )
-    );
-
-    public HashSet<String> usernameTerms = new HashSet<String>(
-            Arrays.asList("username",
-                    "login",
-                    "id",
-                    "tên đăng nhập"
-            )
-    );
-    public HashSet<String> emailTerms = new HashSet<String>(
-            Arrays.asList("email",
-                    "address"
-            )
-    );
-
+    private final TermMatcher termMatcher = TermMatcher.getInstance();
 
     @Nullable
     public List<Field> getFillableItem(){
         if (fillable.size() == 0) {
-            Log.d(TAG, "Not found any fill-able field");
+            if (BuildConfig.DEBUG) {
+                Log.d(TAG, "Not found any fill-able field");
+            }
             return null;
         }
         return fillable;
     }
 
     
-    public void addField(Field field){
+    public boolean addField(Field field){
         if (field.autofillType != View.AUTOFILL_TYPE_NONE) {
             fields.add(field);
+            return true;
         }
+        return false;
     }
     public void parser() {
-        Log.d(TAG, "find fields size: " + fields.size());
+        if (BuildConfig.DEBUG) {
+            Log.d(TAG, "find fields size: " + fields.size());
+        }
         List<Field> unknowType = new ArrayList<>();
         for (Field field: fields){
             // parse by hint
@@ -105,7 +78,9 @@ public class FieldParser {
                 }
             }
         }
-        Log.d(TAG, "unknowType fields size: " + unknowType.size());
+        if (BuildConfig.DEBUG) {
+            Log.d(TAG, "unknowType fields size: " + unknowType.size());
+        }
         // If there is only 1 fillable item in the list and the type is Fill.FILL_TYPE PASSWORD
         // and if there is only 1 item in the list the type is unknown
         // Then make item default type Field.FILL_TYPE_USERNAME;
@@ -128,7 +103,9 @@ public class FieldParser {
         List<Field> loginField = new ArrayList<>();
         for (int i = 0 ; i < size; i++ ){
             int fillType = fields.get(i).fillType;
-            Log.d(TAG, "field type "+ fillType);
+            if (BuildConfig.DEBUG) {
+                Log.d(TAG, "field type "+ fillType);
+            }
             if (fillType == Field.FILL_TYPE_EMAIL || fillType == Field.FILL_TYPE_USERNAME) {
                 loginField.add(fields.get(i));
                 if ( i == size - 1) {
@@ -147,8 +124,16 @@ public class FieldParser {
     }
 
     private boolean parseInputType(Field field) {
-        int type = field.inputType;
-        Log.d("type ", String.valueOf(type));
+        boolean inputTypePassword = isPasswordInputType(field.inputType);
+        return inputTypePassword && !termMatcher.matchesAny(field.hint, TermMatcher.IGNORE)
+                && !termMatcher.matchesAny(field.entry, TermMatcher.IGNORE);
+    }
+
+    /**
+     * Check the input type flags of a field for any password variation.
+     * Cheap enough to be used while the view tree is still being traversed.
+     */
+    public static boolean isPasswordInputType(int type) {
         boolean inputTypePassword = false;
         if ((type & InputType.TYPE_TEXT_VARIATION_PASSWORD) == InputType.TYPE_TEXT_VARIATION_PASSWORD){
             if ((type & InputType.TYPE_TEXT_FLAG_MULTI_LINE) == InputType.TYPE_TEXT_FLAG_MULTI_LINE) {
@@ -166,10 +151,7 @@ public class FieldParser {
         if ((type & InputType.TYPE_TEXT_VARIATION_VISIBLE_PASSWORD) == InputType.TYPE_TEXT_VARIATION_VISIBLE_PASSWORD){
             inputTypePassword = true;
         }
-
-        Log.d("inputTypePassword", String.valueOf(inputTypePassword));
-        return inputTypePassword && !valueContainsAnyTerms(field.hint, ignoreSearchTerms)
-                && !valueContainsAnyTerms(field.entry, ignoreSearchTerms);
+        return inputTypePassword;
     }
 
     @Nullable
@@ -193,27 +175,16 @@ public class FieldParser {
 
     @Nullable
     protected String inferHint(@Nullable String actualHint) {
-        if (Utils.isNullOrWhiteSpace(actualHint)) return null;
-        Log.d(TAG, actualHint);
-        String hint = actualHint.toLowerCase();
-        if (hint.contains("label") || hint.contains("container")) {
+        // all categories are classified in one pass over the hint
+        int terms = termMatcher.match(actualHint);
+        if (terms == 0 || (terms & TermMatcher.LABEL) != 0) {
             return null;
         }
-        if (valueContainsAnyTerms(hint, passwordTerms)) return View.AUTOFILL_HINT_PASSWORD;
-        if (valueContainsAnyTerms(hint, usernameTerms))
+        if ((terms & TermMatcher.PASSWORD) != 0) return View.AUTOFILL_HINT_PASSWORD;
+        if ((terms & TermMatcher.USERNAME) != 0)
             return View.AUTOFILL_HINT_USERNAME;
-        if (valueContainsAnyTerms(hint, emailTerms)) return View.AUTOFILL_HINT_EMAIL_ADDRESS;
+        if ((terms & TermMatcher.EMAIL) != 0) return View.AUTOFILL_HINT_EMAIL_ADDRESS;
 
         return null;
     }
-
-    private boolean valueContainsAnyTerms(String value, HashSet<String> terms)
-    {
-        if (Utils.isNullOrWhiteSpace(value))
-        {
-            return false;
-        }
-        return terms.stream().anyMatch(value.toLowerCase()::contains);
-    }
-
 }
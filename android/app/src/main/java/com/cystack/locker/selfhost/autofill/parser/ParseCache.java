@@ -0,0 +1,92 @@
+package com.cystack.locker.selfhost.autofill.parser;
+
+import androidx.annotation.Nullable;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * Bounded LRU cache of classified field layouts, keyed by a cheap structural fingerprint of the screen.
+ * Focus moving between the fields of one login form triggers a fill request per field, the
+ * repeated requests reuse the first classification. Screens with nothing fillable are cached too.
+ */
+public class ParseCache {
+    private static final int MAX_ENTRIES = 32;
+
+    private static final Map<Key, Layout> entries = new LinkedHashMap<Key, Layout>(MAX_ENTRIES, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Key, Layout> eldest) {
+            return size() > MAX_ENTRIES;
+        }
+    };
+
+    @Nullable
+    public static synchronized Layout get(Key key) {
+        return entries.get(key);
+    }
+
+    public static synchronized void put(Key key, Layout layout) {
+        entries.put(key, layout);
+    }
+
+    public static synchronized void clear() {
+        entries.clear();
+    }
+
+    public static class Key {
+        private final String packageName;
+        private final String title;
+        private final String webDomain;
+        private final int candidateCount;
+        private final int idHash;
+
+        /**
+         * @param idHash - ordered hash of the autofill ids of every autofill-relevant node
+         */
+        public Key(@Nullable String packageName, @Nullable String title, @Nullable String webDomain,
+                   int candidateCount, int idHash) {
+            this.packageName = packageName;
+            this.title = title;
+            this.webDomain = webDomain;
+            this.candidateCount = candidateCount;
+            this.idHash = idHash;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (!(o instanceof Key)) return false;
+            Key key = (Key) o;
+            return candidateCount == key.candidateCount
+                    && idHash == key.idHash
+                    && Objects.equals(packageName, key.packageName)
+                    && Objects.equals(title, key.title)
+                    && Objects.equals(webDomain, key.webDomain);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(packageName, title, webDomain, candidateCount, idHash);
+        }
+    }
+
+    /**
+     * Fillable fields of a screen, as positions in the candidate list of the traversal and their fill types.
+     */
+    public static class Layout {
+        public static final Layout NOTHING_FILLABLE = new Layout(new int[0], new int[0]);
+
+        final int[] positions;
+        final int[] fillTypes;
+
+        public Layout(int[] positions, int[] fillTypes) {
+            this.positions = positions;
+            this.fillTypes = fillTypes;
+        }
+
+        public boolean isEmpty() {
+            return positions.length == 0;
+        }
+    }
+}
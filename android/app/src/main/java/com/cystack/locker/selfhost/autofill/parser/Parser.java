@@ -2,14 +2,22 @@ package com.cystack.locker.selfhost.autofill.parser;
 
 import android.app.assist.AssistStructure;
 import android.os.Build;
+import android.os.SystemClock;
+import android.os.Trace;
+import android.text.InputType;
 import android.util.Log;
+import android.view.View;
+import android.view.ViewStructure;
+import android.view.autofill.AutofillId;
 
 import androidx.annotation.Nullable;
 import androidx.annotation.RequiresApi;
 
+import com.cystack.locker.selfhost.BuildConfig;
 import com.cystack.locker.selfhost.autofill.Utils;
 import com.cystack.locker.selfhost.autofill.Field;
 
+import java.util.ArrayList;
 import java.util.List;
 
 
@@ -17,28 +25,87 @@ import java.util.List;
 public class Parser {
     private static final String TAG = "Parser";
 
+    // Chrome/WebView pages can expose thousands of nodes, login forms are almost always found well before that
+    public static final int DEFAULT_MAX_NODES = 5000;
+    public static final int DEFAULT_MAX_DEPTH = 128;
+    // Interrupts are polled every 256 visited nodes
+    private static final int CANCEL_CHECK_MASK = 0xff;
+
+    private static final String TRAVERSAL_SECTION = "Locker.traversal";
+    private static final String CLASSIFICATION_SECTION = "Locker.classification";
+
+    public enum StopReason {
+        // The whole view tree was visited
+        COMPLETED,
+        // A username/password pair and the domain were found, the rest of the tree was skipped
+        RESOLVED,
+        // The node budget ran out before the tree was fully visited
+        NODE_BUDGET,
+        // The tree was walked to the end, but subtrees deeper than the depth budget were skipped
+        DEPTH_BUDGET,
+        // The thread was interrupted, the request was cancelled or timed out
+        CANCELLED
+    }
+
     private final AssistStructure structure;
+    private final int maxNodes;
+    private final int maxDepth;
     private Result result;
     private String packageName;
     private String domain;
     private String uri;
 
+    // explicit traversal stack, reused across windows
+    private AssistStructure.ViewNode[] nodeStack = new AssistStructure.ViewNode[64];
+    private int[] depthStack = new int[64];
+    private int stackSize = 0;
+
+    private int nodeCount = 0;
+    private int depthSkipped = 0;
+    private boolean usernameFound = false;
+    private boolean loginPairFound = false;
+
+    // autofill-relevant nodes in traversal order, fields are only built for them once the layout is known
+    private final ArrayList<AssistStructure.ViewNode> candidates = new ArrayList<>();
+    private final ArrayList<String[]> candidateHints = new ArrayList<>();
+    private int candidateIdHash = 1;
+    private String title;
+
+    private final TermMatcher termMatcher = TermMatcher.getInstance();
+
     public FieldParser fieldParser = new FieldParser();
 
     public Parser(AssistStructure structure)
+    {
+        this(structure, DEFAULT_MAX_NODES, DEFAULT_MAX_DEPTH);
+    }
+
+    public Parser(AssistStructure structure, int maxNodes, int maxDepth)
     {
         this.structure = structure;
+        this.maxNodes = maxNodes;
+        this.maxDepth = maxDepth;
     }
 
     public Result Parse() {
         result = new Result();
+        Trace.beginSection(TRAVERSAL_SECTION);
+        long startedAt = SystemClock.elapsedRealtimeNanos();
+        StopReason stopReason = StopReason.COMPLETED;
         for(int i = 0 ; i < structure.getWindowNodeCount() ; i++) {
             AssistStructure.WindowNode node = structure.getWindowNodeAt(i);
             if (i == 0)
             {
+                this.title = node.getTitle() != null ? node.getTitle().toString() : null;
                 this.packageName = getTitlePackage(node);
             }
-            ParseNode(node.getRootViewNode());
+            stopReason = traverse(node.getRootViewNode());
+            if (stopReason != StopReason.COMPLETED) {
+                break;
+            }
+        }
+        if (stopReason == StopReason.COMPLETED && depthSkipped > 0) {
+            stopReason = StopReason.DEPTH_BUDGET;
         }
 
         if (!Utils.isNullOrWhiteSpace(packageName)){
@@ -51,45 +118,250 @@ public class Parser {
         if (!Utils.isNullOrWhiteSpace(uri)){
             result.uri = uri;
         }
+        result.nodeCount = nodeCount;
+        result.depthSkipped = depthSkipped;
+        result.stopReason = stopReason;
+        long traversedAt = SystemClock.elapsedRealtimeNanos();
+        result.traversalNanos = traversedAt - startedAt;
+        Trace.endSection();
+
+        if (BuildConfig.DEBUG) {
+            Log.d(TAG, "visited " + nodeCount + " nodes, stop reason: " + stopReason
+                    + ", subtrees skipped by depth: " + depthSkipped + ", candidates: " + candidates.size());
+        }
+
+        if (stopReason == StopReason.CANCELLED) {
+            // partial candidates, neither classified nor cached
+            return result;
+        }
 
         // get fillable item
-        fieldParser.parser();
-        result.fillable = fieldParser.getFillableItem();
+        Trace.beginSection(CLASSIFICATION_SECTION);
+        ParseCache.Key key = new ParseCache.Key(packageName, title, domain, candidates.size(), candidateIdHash);
+        ParseCache.Layout layout = ParseCache.get(key);
+        if (layout != null) {
+            result.fillable = applyLayout(layout);
+            result.fromCache = true;
+        } else {
+            result.fillable = classify();
+            ParseCache.put(key, toLayout(result.fillable));
+        }
+        result.classificationNanos = SystemClock.elapsedRealtimeNanos() - traversedAt;
+        Trace.endSection();
 
         return result;
     }
 
-    private void ParseNode(AssistStructure.ViewNode node){
+    @Nullable
+    private List<Field> classify() {
+        for (int i = 0; i < candidates.size(); i++) {
+            fieldParser.addField(new Field(candidates.get(i), candidateHints.get(i)));
+        }
+        fieldParser.parser();
+        return fieldParser.getFillableItem();
+    }
+
+    @Nullable
+    private List<Field> applyLayout(ParseCache.Layout layout) {
+        if (layout.isEmpty()) {
+            return null;
+        }
+        List<Field> fillable = new ArrayList<>(layout.positions.length);
+        for (int i = 0; i < layout.positions.length; i++) {
+            int position = layout.positions[i];
+            Field field = new Field(candidates.get(position), candidateHints.get(position));
+            field.fillType = layout.fillTypes[i];
+            fillable.add(field);
+        }
+        return fillable;
+    }
+
+    private ParseCache.Layout toLayout(@Nullable List<Field> fillable) {
+        if (fillable == null || fillable.isEmpty()) {
+            return ParseCache.Layout.NOTHING_FILLABLE;
+        }
+        // fieldParser.fields holds one field per candidate, in the same order
+        List<Field> fields = fieldParser.fields;
+        int[] positions = new int[fillable.size()];
+        int[] fillTypes = new int[fillable.size()];
+        for (int i = 0; i < fillable.size(); i++) {
+            Field field = fillable.get(i);
+            positions[i] = fields.indexOf(field);
+            fillTypes[i] = field.fillType;
+        }
+        return new ParseCache.Layout(positions, fillTypes);
+    }
+
+    /**
+     * Depth-first, pre-order walk of one window using an explicit stack so deep DOMs cannot
+     * overflow the thread stack. Children are pushed in reverse so fields keep their on-screen order.
+     */
+    private StopReason traverse(@Nullable AssistStructure.ViewNode root) {
+        if (root == null) {
+            return StopReason.COMPLETED;
+        }
+        stackSize = 0;
+        push(root, 0);
+        while (stackSize > 0) {
+            if (nodeCount >= maxNodes) {
+                clearStack();
+                return StopReason.NODE_BUDGET;
+            }
+            if ((nodeCount & CANCEL_CHECK_MASK) == CANCEL_CHECK_MASK && Thread.currentThread().isInterrupted()) {
+                clearStack();
+                return StopReason.CANCELLED;
+            }
+            stackSize--;
+            AssistStructure.ViewNode node = nodeStack[stackSize];
+            int depth = depthStack[stackSize];
+            nodeStack[stackSize] = null;
+            nodeCount++;
+
+            parseNode(node);
+            if (isResolved()) {
+                clearStack();
+                return StopReason.RESOLVED;
+            }
+
+            int childCount = node.getChildCount();
+            if (childCount == 0) {
+                continue;
+            }
+            if (depth >= maxDepth) {
+                depthSkipped++;
+                continue;
+            }
+            for (int i = childCount - 1; i >= 0; i--) {
+                push(node.getChildAt(i), depth + 1);
+            }
+        }
+        return StopReason.COMPLETED;
+    }
+
+    private void parseNode(AssistStructure.ViewNode node) {
+        // Read every attribute at most once
+        String className = node.getClassName();
+        String[] hints = node.getAutofillHints();
         setPackageAndDomain(node);
-        Log.d(TAG + "---", node.getClassName());
-        // First try the explicit autofill hints...
-        boolean haveAutofillHints = node.getAutofillHints() != null && node.getAutofillHints().length > 0;
-        boolean isEditText = node.getClassName() != null && (node.getClassName().contains("EditText") || node.getClassName().contains("AutoCompleteTextView"));
-        boolean isInputTag = node.getHtmlInfo() != null && node.getHtmlInfo().getTag().equals("input");
+
+        boolean haveAutofillHints = hints != null && hints.length > 0;
+        boolean isEditText = className != null && (className.contains("EditText") || className.contains("AutoCompleteTextView"));
+        boolean isInputTag = false;
+        if (!isEditText && !haveAutofillHints) {
+            ViewStructure.HtmlInfo htmlInfo = node.getHtmlInfo();
+            isInputTag = htmlInfo != null && "input".equals(htmlInfo.getTag());
+        }
 
         if (isEditText || isInputTag || haveAutofillHints) {
-            fieldParser.addField(new Field(node));
+            if (node.getAutofillType() == View.AUTOFILL_TYPE_NONE) {
+                return;
+            }
+            AutofillId autofillId = node.getAutofillId();
+            candidateIdHash = 31 * candidateIdHash + (autofillId != null ? autofillId.hashCode() : 0);
+            // A password field preceded by a username or email input is a login form, a lone password
+            // (PIN, new password...) doesn't stop the walk
+            int inputType = node.getInputType();
+            if (isPasswordCandidate(hints, inputType)) {
+                loginPairFound |= usernameFound;
+            } else if (!usernameFound) {
+                usernameFound = isUsernameCandidate(node, hints, inputType);
+            }
+            candidates.add(node);
+            candidateHints.add(hints);
         }
-        for (int i = 0; i < node.getChildCount(); i++)
-        {
-            ParseNode(node.getChildAt(i));
+    }
+
+    private boolean isPasswordCandidate(@Nullable String[] hints, int inputType) {
+        if (hints != null) {
+            for (String hint : hints) {
+                if (View.AUTOFILL_HINT_PASSWORD.equalsIgnoreCase(hint)) {
+                    return true;
+                }
+            }
+        }
+        return FieldParser.isPasswordInputType(inputType);
+    }
+
+    private boolean isUsernameCandidate(AssistStructure.ViewNode node, @Nullable String[] hints, int inputType) {
+        if (hints != null) {
+            for (String hint : hints) {
+                if (View.AUTOFILL_HINT_USERNAME.equalsIgnoreCase(hint)
+                        || View.AUTOFILL_HINT_EMAIL_ADDRESS.equalsIgnoreCase(hint)) {
+                    return true;
+                }
+            }
+        }
+        int variation = inputType & (InputType.TYPE_MASK_CLASS | InputType.TYPE_MASK_VARIATION);
+        if (variation == (InputType.TYPE_CLASS_TEXT | InputType.TYPE_TEXT_VARIATION_EMAIL_ADDRESS)
+                || variation == (InputType.TYPE_CLASS_TEXT | InputType.TYPE_TEXT_VARIATION_WEB_EMAIL_ADDRESS)) {
+            return true;
+        }
+        // the same terms FieldParser classifies the field with
+        return isUsernameTerm(node.getHint()) || isUsernameTerm(node.getIdEntry());
+    }
+
+    private boolean isUsernameTerm(@Nullable String value) {
+        int terms = termMatcher.match(value);
+        return (terms & (TermMatcher.LABEL | TermMatcher.PASSWORD)) == 0
+                && (terms & (TermMatcher.USERNAME | TermMatcher.EMAIL)) != 0;
+    }
+
+    private boolean isResolved() {
+        if (!loginPairFound) {
+            return false;
+        }
+        if (domain != null) {
+            return true;
+        }
+        // Native apps never expose a web domain, browsers always do
+        return packageName != null && !Utils.CompatBrowsers.contains(packageName);
+    }
+
+    private void push(AssistStructure.ViewNode node, int depth) {
+        if (node == null) {
+            return;
+        }
+        if (stackSize == nodeStack.length) {
+            int capacity = stackSize * 2;
+            AssistStructure.ViewNode[] nodes = new AssistStructure.ViewNode[capacity];
+            int[] depths = new int[capacity];
+            System.arraycopy(nodeStack, 0, nodes, 0, stackSize);
+            System.arraycopy(depthStack, 0, depths, 0, stackSize);
+            nodeStack = nodes;
+            depthStack = depths;
+        }
+        nodeStack[stackSize] = node;
+        depthStack[stackSize] = depth;
+        stackSize++;
+    }
+
+    private void clearStack() {
+        for (int i = 0; i < stackSize; i++) {
+            nodeStack[i] = null;
         }
+        stackSize = 0;
     }
 
     private void setPackageAndDomain(AssistStructure.ViewNode node)
     {
-        if (Utils.isNullOrWhiteSpace(packageName) && !Utils.isNullOrWhiteSpace(node.getIdPackage())) {
-            packageName = node.getClassName();
-        }
-        if (Utils.isNullOrWhiteSpace(domain) && !Utils.isNullOrWhiteSpace(node.getWebDomain())) {
-            String scheme = "http";
-            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.P) {
-                scheme = node.getWebScheme();
+        if (packageName == null) {
+            String idPackage = node.getIdPackage();
+            if (!Utils.isNullOrWhiteSpace(idPackage)) {
+                packageName = idPackage;
             }
-
-            if (!Utils.isNullOrWhiteSpace(node.getWebDomain())){
-                domain = node.getWebDomain();
-                uri = String.format("%s://%s", scheme, node.getWebDomain());
+        }
+        if (domain == null) {
+            String webDomain = node.getWebDomain();
+            if (!Utils.isNullOrWhiteSpace(webDomain)) {
+                String scheme = "http";
+                if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.P) {
+                    String webScheme = node.getWebScheme();
+                    if (!Utils.isNullOrWhiteSpace(webScheme)) {
+                        scheme = webScheme;
+                    }
+                }
+                domain = webDomain;
+                uri = String.format("%s://%s", scheme, webDomain);
             }
         }
     }
@@ -115,6 +387,12 @@ public class Parser {
         String domain;
         String uri;
         List<Field> fillable;
+        int nodeCount;
+        int depthSkipped;
+        StopReason stopReason = StopReason.COMPLETED;
+        boolean fromCache;
+        long traversalNanos;
+        long classificationNanos;
 
         @Nullable
         public String getUri() {
@@ -136,5 +414,26 @@ public class Parser {
         public  List<Field> getFillable() {
             return fillable;
         }
+        public int getNodeCount() {
+            return nodeCount;
+        }
+        /**
+         * @return the number of subtrees left out by the depth budget, the fillable fields may be incomplete
+         */
+        public int getDepthSkipped() {
+            return depthSkipped;
+        }
+        public StopReason getStopReason() {
+            return stopReason;
+        }
+        public boolean isFromCache() {
+            return fromCache;
+        }
+        public long getTraversalNanos() {
+            return traversalNanos;
+        }
+        public long getClassificationNanos() {
+            return classificationNanos;
+        }
     }
 }
@@ -0,0 +1,355 @@
+package com.cystack.locker.selfhost.autofill.parser;
+
+import android.content.Context;
+import android.content.res.AssetManager;
+import android.util.Log;
+
+import androidx.annotation.Nullable;
+
+import java.io.BufferedReader;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.text.Normalizer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Aho-Corasick automaton over all field heuristic dictionaries.
+ *
+ * Text is folded on the fly (lower case, accents stripped, separators collapsed to a space) and
+ * every category is classified in a single pass without allocating. The input is framed by a
+ * virtual space on each side, so a term written as " mat " only matches a whole word.
+ */
+public class TermMatcher {
+    private static final String TAG = "TermMatcher";
+    private static final String LOCALE_ASSET = "autofill_terms.txt";
+
+    public static final int PASSWORD = 1;
+    public static final int USERNAME = 1 << 1;
+    public static final int EMAIL = 1 << 2;
+    // Fields that look like password inputs but are not (search boxes...)
+    public static final int IGNORE = 1 << 3;
+    // Labels and containers are never fillable
+    public static final int LABEL = 1 << 4;
+
+    private static final String[] PASSWORD_TERMS = {
+            "password",
+            "pswd",
+            "pwd",
+            "mật khẩu",
+            "pass",
+            " mật "
+    };
+    private static final String[] USERNAME_TERMS = {
+            "username",
+            "login",
+            "id",
+            "tên đăng nhập"
+    };
+    private static final String[] EMAIL_TERMS = {
+            "email",
+            "address"
+    };
+    private static final String[] IGNORE_TERMS = {
+            "search",
+            "find",
+            "container",
+            "label",
+            "recipient",
+            "edit",
+            "tìm kiếm"
+    };
+    private static final String[] LABEL_TERMS = {
+            "label",
+            "container"
+    };
+
+    // Folding table for the Latin-1 Supplement up to the Latin Extended Additional block (Vietnamese)
+    private static final char FOLD_TABLE_START = 0x00C0;
+    private static final char FOLD_TABLE_END = 0x1EFF;
+    private static final char[] FOLD_TABLE = buildFoldTable();
+
+    private static volatile AssetManager assets;
+    private static volatile TermMatcher instance;
+
+    // State s owns edges [edgeStart[s], edgeStart[s + 1]), sorted by character
+    private final int[] edgeStart;
+    private final char[] edgeChars;
+    private final int[] edgeTargets;
+    private final int[] fail;
+    private final int[] output;
+
+    /**
+     * Remember where the locale dictionaries live. Nothing is read until the matcher is first used.
+     */
+    public static void install(Context context) {
+        if (assets == null && context != null) {
+            assets = context.getApplicationContext().getAssets();
+        }
+    }
+
+    public static TermMatcher getInstance() {
+        TermMatcher matcher = instance;
+        if (matcher == null) {
+            synchronized (TermMatcher.class) {
+                matcher = instance;
+                if (matcher == null) {
+                    matcher = build(assets);
+                    instance = matcher;
+                }
+            }
+        }
+        return matcher;
+    }
+
+    private static TermMatcher build(@Nullable AssetManager assetManager) {
+        Builder builder = new Builder();
+        builder.addAll(PASSWORD_TERMS, PASSWORD);
+        builder.addAll(USERNAME_TERMS, USERNAME);
+        builder.addAll(EMAIL_TERMS, EMAIL);
+        builder.addAll(IGNORE_TERMS, IGNORE);
+        builder.addAll(LABEL_TERMS, LABEL);
+        if (assetManager != null) {
+            loadLocaleDictionaries(assetManager, builder);
+        }
+        return builder.compile();
+    }
+
+    /**
+     * Asset format: one "category: term" per line, "#" starts a comment.
+     * Categories are password, username, email, ignore and label. Separators fold to a space,
+     * so "_term_" only matches "term" as a whole word.
+     */
+    private static void loadLocaleDictionaries(AssetManager assetManager, Builder builder) {
+        try (BufferedReader reader = new BufferedReader(
+                new InputStreamReader(assetManager.open(LOCALE_ASSET), StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.isEmpty() || line.charAt(0) == '#') {
+                    continue;
+                }
+                int separator = line.indexOf(':');
+                if (separator <= 0) {
+                    continue;
+                }
+                int category = categoryOf(line.substring(0, separator).trim());
+                String term = line.substring(separator + 1).trim();
+                if (category != 0 && !term.isEmpty()) {
+                    builder.add(term, category);
+                }
+            }
+        } catch (FileNotFoundException e) {
+            // no extra locales bundled
+        } catch (IOException e) {
+            Log.e(TAG, "Cannot load locale dictionaries", e);
+        }
+    }
+
+    private static int categoryOf(String name) {
+        switch (name) {
+            case "password":
+                return PASSWORD;
+            case "username":
+                return USERNAME;
+            case "email":
+                return EMAIL;
+            case "ignore":
+                return IGNORE;
+            case "label":
+                return LABEL;
+        }
+        return 0;
+    }
+
+    private TermMatcher(int[] edgeStart, char[] edgeChars, int[] edgeTargets, int[] fail, int[] output) {
+        this.edgeStart = edgeStart;
+        this.edgeChars = edgeChars;
+        this.edgeTargets = edgeTargets;
+        this.fail = fail;
+        this.output = output;
+    }
+
+    /**
+     * @return the bit set of every category with at least one term contained in the value
+     */
+    public int match(@Nullable String value) {
+        if (value == null || value.isEmpty()) {
+            return 0;
+        }
+        int state = next(0, ' ');
+        int categories = output[state];
+        for (int i = 0; i < value.length(); i++) {
+            state = next(state, fold(value.charAt(i)));
+            categories |= output[state];
+        }
+        state = next(state, ' ');
+        return categories | output[state];
+    }
+
+    public boolean matchesAny(@Nullable String value, int categories) {
+        return (match(value) & categories) != 0;
+    }
+
+    private int next(int state, char c) {
+        while (true) {
+            int target = transition(state, c);
+            if (target >= 0) {
+                return target;
+            }
+            if (state == 0) {
+                return 0;
+            }
+            state = fail[state];
+        }
+    }
+
+    private int transition(int state, char c) {
+        int low = edgeStart[state];
+        int high = edgeStart[state + 1] - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            char edge = edgeChars[mid];
+            if (edge < c) {
+                low = mid + 1;
+            } else if (edge > c) {
+                high = mid - 1;
+            } else {
+                return edgeTargets[mid];
+            }
+        }
+        return -1;
+    }
+
+    static char fold(char c) {
+        if (c < 0x80) {
+            if (c >= 'a' && c <= 'z' || c >= '0' && c <= '9') {
+                return c;
+            }
+            if (c >= 'A' && c <= 'Z') {
+                return (char) (c + ('a' - 'A'));
+            }
+            return ' ';
+        }
+        if (c >= FOLD_TABLE_START && c <= FOLD_TABLE_END) {
+            return FOLD_TABLE[c - FOLD_TABLE_START];
+        }
+        if (Character.isLetterOrDigit(c)) {
+            return Character.toLowerCase(c);
+        }
+        return ' ';
+    }
+
+    private static char[] buildFoldTable() {
+        char[] table = new char[FOLD_TABLE_END - FOLD_TABLE_START + 1];
+        for (int i = 0; i < table.length; i++) {
+            char c = (char) (FOLD_TABLE_START + i);
+            char folded;
+            if (c == 'đ' || c == 'Đ') {
+                folded = 'd';
+            } else if (!Character.isLetterOrDigit(c)) {
+                folded = ' ';
+            } else {
+                String decomposed = Normalizer.normalize(String.valueOf(c), Normalizer.Form.NFD);
+                folded = Character.toLowerCase(decomposed.charAt(0));
+            }
+            table[i] = folded;
+        }
+        return table;
+    }
+
+    private static class Builder {
+        private final List<Map<Character, Integer>> children = new ArrayList<>();
+        private final List<Integer> outputs = new ArrayList<>();
+
+        Builder() {
+            newState();
+        }
+
+        private int newState() {
+            children.add(new HashMap<>());
+            outputs.add(0);
+            return children.size() - 1;
+        }
+
+        void addAll(String[] terms, int category) {
+            for (String term : terms) {
+                add(term, category);
+            }
+        }
+
+        void add(String term, int category) {
+            int state = 0;
+            for (int i = 0; i < term.length(); i++) {
+                char c = fold(term.charAt(i));
+                Integer next = children.get(state).get(c);
+                if (next == null) {
+                    next = newState();
+                    children.get(state).put(c, next);
+                }
+                state = next;
+            }
+            outputs.set(state, outputs.get(state) | category);
+        }
+
+        TermMatcher compile() {
+            int stateCount = children.size();
+            int[] fail = new int[stateCount];
+            int[] output = new int[stateCount];
+            for (int i = 0; i < stateCount; i++) {
+                output[i] = outputs.get(i);
+            }
+
+            // Breadth-first so every fail target is final before it is inherited
+            int[] queue = new int[stateCount];
+            int head = 0;
+            int tail = 0;
+            for (int child : children.get(0).values()) {
+                fail[child] = 0;
+                queue[tail++] = child;
+            }
+            while (head < tail) {
+                int state = queue[head++];
+                for (Map.Entry<Character, Integer> edge : children.get(state).entrySet()) {
+                    char c = edge.getKey();
+                    int child = edge.getValue();
+                    int fallback = fail[state];
+                    Integer target = children.get(fallback).get(c);
+                    while (target == null && fallback != 0) {
+                        fallback = fail[fallback];
+                        target = children.get(fallback).get(c);
+                    }
+                    fail[child] = target != null && target != child ? target : 0;
+                    output[child] |= output[fail[child]];
+                    queue[tail++] = child;
+                }
+            }
+
+            int edgeCount = 0;
+            for (Map<Character, Integer> edges : children) {
+                edgeCount += edges.size();
+            }
+            int[] edgeStart = new int[stateCount + 1];
+            char[] edgeChars = new char[edgeCount];
+            int[] edgeTargets = new int[edgeCount];
+            int position = 0;
+            for (int state = 0; state < stateCount; state++) {
+                edgeStart[state] = position;
+                Map<Character, Integer> edges = children.get(state);
+                Character[] keys = edges.keySet().toArray(new Character[0]);
+                Arrays.sort(keys);
+                for (Character key : keys) {
+                    edgeChars[position] = key;
+                    edgeTargets[position] = edges.get(key);
+                    position++;
+                }
+            }
+            edgeStart[stateCount] = position;
+            return new TermMatcher(edgeStart, edgeChars, edgeTargets, fail, output);
+        }
+    }
+}
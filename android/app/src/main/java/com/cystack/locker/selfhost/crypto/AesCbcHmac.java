@@ -0,0 +1,157 @@
+package com.cystack.locker.selfhost.crypto;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.concurrent.Executor;
+
+import javax.crypto.Cipher;
+import javax.crypto.Mac;
+import javax.crypto.spec.IvParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+
+/**
+ * Bulk decryption of AES-CBC cipher strings, with an HMAC-SHA256 over iv + data when the key has a mac key.
+ * Values are the "iv|data|mac" part of a cipher string, each piece base64 encoded.
+ */
+public class AesCbcHmac {
+    private static final int MAX_KEYS = 256;
+    private static final int MIN_PARALLEL_BATCH = 64;
+    private static final int MAC_LENGTH = 32;
+
+    private static final KeyCache<Keys> keys = new KeyCache<>(MAX_KEYS);
+
+    private static final ThreadLocal<Worker> workers = new ThreadLocal<Worker>() {
+        @Override
+        protected Worker initialValue() {
+            try {
+                return new Worker();
+            } catch (GeneralSecurityException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+    };
+
+    static class Keys {
+        final SecretKeySpec encKey;
+        @Nullable
+        final SecretKeySpec macKey;
+
+        Keys(SecretKeySpec encKey, @Nullable SecretKeySpec macKey) {
+            this.encKey = encKey;
+            this.macKey = macKey;
+        }
+    }
+
+    /**
+     * Per thread Cipher, Mac and output buffer, reused for every value.
+     */
+    private static class Worker {
+        final Cipher cipher = Cipher.getInstance("AES/CBC/PKCS5Padding");
+        final Mac mac = Mac.getInstance("HmacSHA256");
+        final byte[] computedMac = new byte[MAC_LENGTH];
+        SecretKeySpec macKey;
+        byte[] output = new byte[1024];
+
+        Worker() throws GeneralSecurityException {
+        }
+
+        @Nullable
+        String decrypt(Keys keys, String value) throws GeneralSecurityException {
+            int first = value.indexOf('|');
+            if (first < 0) {
+                return null;
+            }
+            int second = value.indexOf('|', first + 1);
+            byte[] iv = Base64.getDecoder().decode(value.substring(0, first));
+            byte[] data = Base64.getDecoder().decode(second < 0 ? value.substring(first + 1) : value.substring(first + 1, second));
+
+            if (keys.macKey != null) {
+                if (second < 0) {
+                    // mac required
+                    return null;
+                }
+                byte[] expected = Base64.getDecoder().decode(value.substring(second + 1));
+                if (macKey != keys.macKey) {
+                    mac.init(keys.macKey);
+                    macKey = keys.macKey;
+                }
+                mac.update(iv);
+                mac.update(data);
+                mac.doFinal(computedMac, 0);
+                if (!MessageDigest.isEqual(expected, computedMac)) {
+                    return null;
+                }
+            }
+
+            cipher.init(Cipher.DECRYPT_MODE, keys.encKey, new IvParameterSpec(iv));
+            int size = cipher.getOutputSize(data.length);
+            if (output.length < size) {
+                output = new byte[Math.max(size, output.length * 2)];
+            }
+            int length = cipher.doFinal(data, 0, data.length, output, 0);
+            String plainText = new String(output, 0, length, StandardCharsets.UTF_8);
+            Arrays.fill(output, 0, length, (byte) 0);
+            return plainText;
+        }
+    }
+
+    /**
+     * @param macKey - null for keys without authentication
+     * @return the handle of the key
+     */
+    @NonNull
+    public static String importKey(@NonNull byte[] encKey, @Nullable byte[] macKey) throws GeneralSecurityException {
+        String handle = KeyCache.handleOf(encKey, macKey);
+        if (!keys.contains(handle)) {
+            keys.put(handle, new Keys(new SecretKeySpec(encKey, "AES"),
+                    macKey != null ? new SecretKeySpec(macKey, "HmacSHA256") : null));
+        }
+        return handle;
+    }
+
+    public static boolean hasKey(@NonNull String handle) {
+        return keys.contains(handle);
+    }
+
+    @NonNull
+    static Keys getKeys(@NonNull String handle) throws GeneralSecurityException {
+        Keys key = keys.get(handle);
+        if (key == null) {
+            throw new GeneralSecurityException("Unknown key handle");
+        }
+        return key;
+    }
+
+    public static void clearKeys() {
+        keys.clear();
+    }
+
+    /**
+     * Verify and decrypt every value with the same key, spread over the executor for large batches.
+     * @return UTF-8 plaintexts in input order, null for values that are malformed or fail the mac check
+     */
+    @NonNull
+    public static String[] decryptBatch(@NonNull String handle, @NonNull String[] values,
+                                        @NonNull Executor executor, int parallelism)
+            throws GeneralSecurityException, InterruptedException {
+        Keys key = getKeys(handle);
+        String[] results = new String[values.length];
+        Batches.run(values.length, MIN_PARALLEL_BATCH, executor, parallelism, (from, to) -> {
+            Worker worker = workers.get();
+            for (int i = from; i < to; i++) {
+                try {
+                    results[i] = values[i] != null ? worker.decrypt(key, values[i]) : null;
+                } catch (GeneralSecurityException | IllegalArgumentException e) {
+                    results[i] = null;
+                }
+            }
+        });
+        return results;
+    }
+}
@@ -0,0 +1,209 @@
+package com.cystack.locker.selfhost.crypto;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.concurrent.CancellationException;
+
+import javax.crypto.Cipher;
+import javax.crypto.Mac;
+import javax.crypto.spec.IvParameterSpec;
+
+/**
+ * Streaming AES-CBC + HMAC-SHA256 over files, in the EncArrayBuffer layout used for attachments:
+ * encType (1 byte) | iv (16) | mac (32, only for keys with a mac key) | data.
+ * The mac covers iv + data. Files are processed in fixed size chunks, so memory use does not
+ * depend on the size of the file.
+ */
+public class AesCbcHmacFile {
+    private static final int CHUNK_SIZE = 256 * 1024;
+    private static final int IV_LENGTH = 16;
+    private static final int MAC_LENGTH = 32;
+    private static final int BLOCK_SIZE = 16;
+
+    private static final SecureRandom random = new SecureRandom();
+
+    public interface Progress {
+        void onProgress(long processed, long total);
+    }
+
+    /**
+     * @param encType - written as the first byte, the encryption type of the key
+     * @return size of the encrypted file
+     */
+    public static long encrypt(@NonNull File input, @NonNull File output, @NonNull String keyHandle, int encType,
+                               @Nullable Progress progress) throws GeneralSecurityException, IOException {
+        AesCbcHmac.Keys keys = AesCbcHmac.getKeys(keyHandle);
+        byte[] iv = new byte[IV_LENGTH];
+        random.nextBytes(iv);
+        Cipher cipher = Cipher.getInstance("AES/CBC/PKCS5Padding");
+        cipher.init(Cipher.ENCRYPT_MODE, keys.encKey, new IvParameterSpec(iv));
+        Mac mac = null;
+        if (keys.macKey != null) {
+            mac = Mac.getInstance("HmacSHA256");
+            mac.init(keys.macKey);
+            mac.update(iv);
+        }
+        int headerLength = 1 + IV_LENGTH + (mac != null ? MAC_LENGTH : 0);
+
+        boolean done = false;
+        try (FileChannel in = FileChannel.open(input.toPath(), StandardOpenOption.READ);
+             FileChannel out = FileChannel.open(output.toPath(), StandardOpenOption.WRITE,
+                     StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            long total = in.size();
+            ByteBuffer header = ByteBuffer.allocate(headerLength);
+            header.put((byte) encType).put(iv);
+            // the mac is only known at the end, it is written over these zeros
+            header.position(headerLength);
+            header.flip();
+            writeFully(out, header);
+
+            byte[] buffer = new byte[CHUNK_SIZE];
+            byte[] encrypted = new byte[CHUNK_SIZE + BLOCK_SIZE];
+            ByteBuffer readBuffer = ByteBuffer.wrap(buffer);
+            long processed = 0;
+            int read;
+            while ((read = readChunk(in, readBuffer)) > 0) {
+                checkCancelled();
+                int length = cipher.update(buffer, 0, read, encrypted, 0);
+                if (mac != null) {
+                    mac.update(encrypted, 0, length);
+                }
+                writeFully(out, ByteBuffer.wrap(encrypted, 0, length));
+                processed += read;
+                if (progress != null) {
+                    progress.onProgress(processed, total);
+                }
+            }
+            int length = cipher.doFinal(encrypted, 0);
+            if (mac != null) {
+                mac.update(encrypted, 0, length);
+            }
+            writeFully(out, ByteBuffer.wrap(encrypted, 0, length));
+
+            if (mac != null) {
+                ByteBuffer macBuffer = ByteBuffer.wrap(mac.doFinal());
+                long position = 1 + IV_LENGTH;
+                while (macBuffer.hasRemaining()) {
+                    position += out.write(macBuffer, position);
+                }
+            }
+            out.force(false);
+            done = true;
+            return out.size();
+        } finally {
+            if (!done) {
+                output.delete();
+            }
+        }
+    }
+
+    /**
+     * The plaintext is written next to the output and only moved into place once the mac has been verified.
+     * @return size of the decrypted file, -1 when the file is not encrypted with this key or fails the mac check
+     */
+    public static long decrypt(@NonNull File input, @NonNull File output, @NonNull String keyHandle, int encType,
+                               @Nullable Progress progress) throws GeneralSecurityException, IOException {
+        AesCbcHmac.Keys keys = AesCbcHmac.getKeys(keyHandle);
+        File partial = new File(output.getPath() + ".part");
+        boolean done = false;
+        try (FileChannel in = FileChannel.open(input.toPath(), StandardOpenOption.READ)) {
+            long total = in.size();
+            int headerLength = 1 + IV_LENGTH + (keys.macKey != null ? MAC_LENGTH : 0);
+            if (total <= headerLength) {
+                return -1;
+            }
+            ByteBuffer header = ByteBuffer.allocate(headerLength);
+            readChunk(in, header);
+            if (header.get(0) != (byte) encType) {
+                return -1;
+            }
+            byte[] iv = new byte[IV_LENGTH];
+            header.position(1);
+            header.get(iv);
+            byte[] expectedMac = null;
+            Mac mac = null;
+            if (keys.macKey != null) {
+                expectedMac = new byte[MAC_LENGTH];
+                header.get(expectedMac);
+                mac = Mac.getInstance("HmacSHA256");
+                mac.init(keys.macKey);
+                mac.update(iv);
+            }
+            Cipher cipher = Cipher.getInstance("AES/CBC/PKCS5Padding");
+            cipher.init(Cipher.DECRYPT_MODE, keys.encKey, new IvParameterSpec(iv));
+
+            try (FileChannel out = FileChannel.open(partial.toPath(), StandardOpenOption.WRITE,
+                    StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING)) {
+                byte[] buffer = new byte[CHUNK_SIZE];
+                byte[] decrypted = new byte[CHUNK_SIZE + BLOCK_SIZE];
+                ByteBuffer readBuffer = ByteBuffer.wrap(buffer);
+                long processed = headerLength;
+                int read;
+                while ((read = readChunk(in, readBuffer)) > 0) {
+                    checkCancelled();
+                    if (mac != null) {
+                        mac.update(buffer, 0, read);
+                    }
+                    int length = cipher.update(buffer, 0, read, decrypted, 0);
+                    writeFully(out, ByteBuffer.wrap(decrypted, 0, length));
+                    processed += read;
+                    if (progress != null) {
+                        progress.onProgress(processed, total);
+                    }
+                }
+                if (mac != null && !MessageDigest.isEqual(expectedMac, mac.doFinal())) {
+                    return -1;
+                }
+                int length;
+                try {
+                    length = cipher.doFinal(decrypted, 0);
+                } catch (GeneralSecurityException e) {
+                    // bad padding, only reachable for keys without a mac
+                    return -1;
+                }
+                writeFully(out, ByteBuffer.wrap(decrypted, 0, length));
+                out.force(false);
+            }
+            if (!partial.renameTo(output)) {
+                throw new IOException("Failed to move " + partial + " to " + output);
+            }
+            done = true;
+            return output.length();
+        } finally {
+            if (!done) {
+                partial.delete();
+            }
+        }
+    }
+
+    private static int readChunk(FileChannel in, ByteBuffer buffer) throws IOException {
+        buffer.clear();
+        while (buffer.hasRemaining()) {
+            if (in.read(buffer) < 0) {
+                break;
+            }
+        }
+        return buffer.position();
+    }
+
+    private static void writeFully(FileChannel out, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            out.write(buffer);
+        }
+    }
+
+    private static void checkCancelled() {
+        if (Thread.currentThread().isInterrupted()) {
+            throw new CancellationException("File operation interrupted");
+        }
+    }
+}
@@ -0,0 +1,57 @@
+package com.cystack.locker.selfhost.crypto;
+
+import androidx.annotation.NonNull;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Splits a batch of independent items into contiguous chunks processed in parallel.
+ * The calling thread claims chunks too and only waits for chunks a helper already started,
+ * so a batch completes even when the helpers never get a thread of a saturated pool.
+ */
+class Batches {
+    interface RangeTask {
+        void run(int from, int to);
+    }
+
+    /**
+     * Run the task over [0, count).
+     * @param minChunk - smallest chunk worth handing to another thread
+     */
+    static void run(int count, int minChunk, @NonNull Executor executor, int parallelism,
+                    @NonNull RangeTask task) throws InterruptedException {
+        final int chunks = Math.min(parallelism, count / minChunk);
+        if (chunks <= 1) {
+            task.run(0, count);
+            return;
+        }
+        final int chunkSize = (count + chunks - 1) / chunks;
+        final AtomicInteger nextChunk = new AtomicInteger();
+        final CountDownLatch finished = new CountDownLatch(chunks);
+        final AtomicReference<RuntimeException> failure = new AtomicReference<>();
+        Runnable worker = () -> {
+            int chunk;
+            while ((chunk = nextChunk.getAndIncrement()) < chunks) {
+                try {
+                    int from = chunk * chunkSize;
+                    task.run(Math.min(count, from), Math.min(count, from + chunkSize));
+                } catch (RuntimeException e) {
+                    failure.compareAndSet(null, e);
+                } finally {
+                    finished.countDown();
+                }
+            }
+        };
+        for (int i = 1; i < chunks; i++) {
+            executor.execute(worker);
+        }
+        worker.run();
+        finished.await();
+        if (failure.get() != null) {
+            throw failure.get();
+        }
+    }
+}
@@ -0,0 +1,234 @@
+package com.cystack.locker.selfhost.crypto;
+
+import android.os.SystemClock;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.nio.channels.ClosedByInterruptException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Bounded, core-sized pool shared by every native crypto operation.
+ * Queued work is ordered by lane, so an unlock is never stuck behind a background sync batch,
+ * then by submission order. Operations submitted with a request id can be cancelled, and queue
+ * and run times are recorded per operation name.
+ */
+public class CryptoExecutor {
+    public static final int LANE_INTERACTIVE = 0;
+    public static final int LANE_NORMAL = 1;
+    public static final int LANE_BACKGROUND = 2;
+
+    public static final int PARALLELISM = Math.max(1, Runtime.getRuntime().availableProcessors());
+
+    private static final CryptoExecutor instance = new CryptoExecutor(PARALLELISM);
+
+    private final ThreadPoolExecutor pool;
+    private final AtomicLong sequence = new AtomicLong();
+    private final ConcurrentHashMap<String, Task<?>> inFlight = new ConcurrentHashMap<>();
+    private final HashMap<String, Metrics> metrics = new HashMap<>();
+
+    public interface Callback<T> {
+        void onSuccess(T result);
+
+        void onError(Throwable error);
+
+        void onCancelled();
+    }
+
+    public static class Metrics {
+        public long count;
+        public long failed;
+        public long cancelled;
+        public long totalQueueMs;
+        public long maxQueueMs;
+        public long totalRunMs;
+        public long maxRunMs;
+
+        Metrics copy() {
+            Metrics copy = new Metrics();
+            copy.count = count;
+            copy.failed = failed;
+            copy.cancelled = cancelled;
+            copy.totalQueueMs = totalQueueMs;
+            copy.maxQueueMs = maxQueueMs;
+            copy.totalRunMs = totalRunMs;
+            copy.maxRunMs = maxRunMs;
+            return copy;
+        }
+    }
+
+    public static CryptoExecutor getInstance() {
+        return instance;
+    }
+
+    private CryptoExecutor(int threads) {
+        final AtomicInteger threadCount = new AtomicInteger();
+        pool = new ThreadPoolExecutor(threads, threads, 30, TimeUnit.SECONDS, new PriorityBlockingQueue<Runnable>(),
+                runnable -> {
+                    Thread thread = new Thread(runnable, "crypto-" + threadCount.incrementAndGet());
+                    thread.setPriority(Thread.NORM_PRIORITY + 1);
+                    return thread;
+                });
+        pool.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * @param operation - name the timings are recorded under
+     * @param requestId - id to cancel the operation with, null if it can't be cancelled
+     */
+    public <T> void submit(@NonNull String operation, int lane, @Nullable String requestId,
+                           @NonNull Callable<T> work, @NonNull Callback<T> callback) {
+        Task<T> task = new Task<>(operation, lane, requestId, work, callback);
+        if (requestId != null) {
+            Task<?> previous = inFlight.put(requestId, task);
+            if (previous != null) {
+                previous.cancel(true);
+            }
+        }
+        pool.execute(task);
+    }
+
+    /**
+     * Cancel an operation; a queued one never runs, a running one is interrupted.
+     * @return false when nothing with that id is queued or running
+     */
+    public boolean cancel(@NonNull String requestId) {
+        Task<?> task = inFlight.remove(requestId);
+        if (task == null) {
+            return false;
+        }
+        boolean cancelled = task.cancel(true);
+        pool.remove(task);
+        return cancelled;
+    }
+
+    /**
+     * Executor for the chunks of a batch, queued in the lane of the batch itself.
+     */
+    @NonNull
+    public Executor lane(final int lane) {
+        return runnable -> pool.execute(new Task<>(null, lane, null, () -> {
+            runnable.run();
+            return null;
+        }, null));
+    }
+
+    @NonNull
+    public synchronized Map<String, Metrics> getMetrics() {
+        HashMap<String, Metrics> copy = new HashMap<>(metrics.size());
+        for (Map.Entry<String, Metrics> entry : metrics.entrySet()) {
+            copy.put(entry.getKey(), entry.getValue().copy());
+        }
+        return copy;
+    }
+
+    public synchronized void resetMetrics() {
+        metrics.clear();
+    }
+
+    private synchronized void record(String operation, long queueMs, long runMs, boolean failed, boolean cancelled) {
+        Metrics entry = metrics.get(operation);
+        if (entry == null) {
+            entry = new Metrics();
+            metrics.put(operation, entry);
+        }
+        entry.count++;
+        if (failed) {
+            entry.failed++;
+        }
+        if (cancelled) {
+            entry.cancelled++;
+        }
+        entry.totalQueueMs += queueMs;
+        entry.maxQueueMs = Math.max(entry.maxQueueMs, queueMs);
+        entry.totalRunMs += runMs;
+        entry.maxRunMs = Math.max(entry.maxRunMs, runMs);
+    }
+
+    private class Task<T> extends FutureTask<T> implements Comparable<Task<?>> {
+        private final String operation;
+        private final int lane;
+        private final long order;
+        private final String requestId;
+        private final Callback<T> callback;
+        private final long enqueuedAt;
+        private volatile long startedAt;
+
+        Task(@Nullable String operation, int lane, @Nullable String requestId, Callable<T> work,
+             @Nullable Callback<T> callback) {
+            super(work);
+            this.operation = operation;
+            this.lane = lane;
+            this.order = sequence.getAndIncrement();
+            this.requestId = requestId;
+            this.callback = callback;
+            this.enqueuedAt = SystemClock.elapsedRealtime();
+        }
+
+        @Override
+        public void run() {
+            startedAt = SystemClock.elapsedRealtime();
+            super.run();
+        }
+
+        @Override
+        protected void done() {
+            if (requestId != null) {
+                inFlight.remove(requestId, this);
+            }
+            long now = SystemClock.elapsedRealtime();
+            long started = startedAt != 0 ? startedAt : now;
+            boolean cancelled = isCancelled();
+            boolean failed = false;
+            T result = null;
+            Throwable error = null;
+            if (!cancelled) {
+                try {
+                    result = get();
+                } catch (ExecutionException e) {
+                    error = e.getCause();
+                    // work that noticed the interrupt itself
+                    cancelled = error instanceof CancellationException || error instanceof InterruptedException
+                            || error instanceof ClosedByInterruptException;
+                    failed = !cancelled;
+                } catch (InterruptedException | CancellationException e) {
+                    cancelled = true;
+                }
+            }
+            if (operation != null) {
+                record(operation, started - enqueuedAt, now - started, failed, cancelled);
+            }
+            if (callback == null) {
+                return;
+            }
+            if (cancelled) {
+                callback.onCancelled();
+            } else if (failed) {
+                callback.onError(error);
+            } else {
+                callback.onSuccess(result);
+            }
+        }
+
+        @Override
+        public int compareTo(Task<?> other) {
+            if (lane != other.lane) {
+                return lane < other.lane ? -1 : 1;
+            }
+            return Long.compare(order, other.order);
+        }
+    }
+}
@@ -0,0 +1,62 @@
+package com.cystack.locker.selfhost.crypto;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Bounded LRU of parsed keys, addressed by a handle JS keeps instead of resending key material.
+ * The handle of a key is the hex SHA-256 of its encoding, so importing the same key again is
+ * only a hash and a lookup.
+ */
+class KeyCache<T> {
+    private final Map<String, T> keys;
+
+    KeyCache(final int maxKeys) {
+        keys = new LinkedHashMap<String, T>(maxKeys, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, T> eldest) {
+                return size() > maxKeys;
+            }
+        };
+    }
+
+    @NonNull
+    static String handleOf(@NonNull byte[]... parts) throws GeneralSecurityException {
+        MessageDigest digest = MessageDigest.getInstance("SHA-256");
+        for (byte[] part : parts) {
+            if (part != null) {
+                digest.update(part);
+            }
+            // keeps (a, bc) and (ab, c) apart
+            digest.update((byte) (part != null ? part.length : 0xff));
+        }
+        byte[] hash = digest.digest();
+        StringBuilder handle = new StringBuilder(hash.length * 2);
+        for (byte b : hash) {
+            handle.append(Character.forDigit((b >>> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+        }
+        return handle.toString();
+    }
+
+    synchronized boolean contains(@NonNull String handle) {
+        return keys.containsKey(handle);
+    }
+
+    @Nullable
+    synchronized T get(@NonNull String handle) {
+        return keys.get(handle);
+    }
+
+    synchronized void put(@NonNull String handle, @NonNull T key) {
+        keys.put(handle, key);
+    }
+
+    synchronized void clear() {
+        keys.clear();
+    }
+}
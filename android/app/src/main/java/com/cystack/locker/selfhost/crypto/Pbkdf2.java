@@ -0,0 +1,241 @@
+package com.cystack.locker.selfhost.crypto;
+
+import androidx.annotation.NonNull;
+
+import java.util.Arrays;
+import java.util.concurrent.CancellationException;
+
+/**
+ * PBKDF2-HMAC-SHA256 (RFC 8018) tuned for high iteration counts.
+ *
+ * The HMAC inner and outer pad blocks are compressed once per derivation, after which every
+ * iteration is exactly two SHA-256 compressions over fixed-size int[] blocks, without allocating.
+ * An instance is not thread safe, create one per derivation or per thread.
+ */
+public class Pbkdf2 {
+    private static final int BLOCK_WORDS = 16;
+    private static final int HASH_WORDS = 8;
+    private static final int HASH_BYTES = 32;
+    private static final int BLOCK_BYTES = 64;
+    // Interrupts are polled every 4096 iterations, a few milliseconds on slow devices
+    private static final int CANCEL_CHECK_MASK = 0xfff;
+
+    private static final int[] IV = {
+            0x6a09e667, 0xbb67ae85, 0x3c6ef372, 0xa54ff53a, 0x510e527f, 0x9b05688c, 0x1f83d9ab, 0x5be0cd19
+    };
+
+    private static final int[] K = {
+            0x428a2f98, 0x71374491, 0xb5c0fbcf, 0xe9b5dba5, 0x3956c25b, 0x59f111f1, 0x923f82a4, 0xab1c5ed5,
+            0xd807aa98, 0x12835b01, 0x243185be, 0x550c7dc3, 0x72be5d74, 0x80deb1fe, 0x9bdc06a7, 0xc19bf174,
+            0xe49b69c1, 0xefbe4786, 0x0fc19dc6, 0x240ca1cc, 0x2de92c6f, 0x4a7484aa, 0x5cb0a9dc, 0x76f988da,
+            0x983e5152, 0xa831c66d, 0xb00327c8, 0xbf597fc7, 0xc6e00bf3, 0xd5a79147, 0x06ca6351, 0x14292967,
+            0x27b70a85, 0x2e1b2138, 0x4d2c6dfc, 0x53380d13, 0x650a7354, 0x766a0abb, 0x81c2c92e, 0x92722c85,
+            0xa2bfe8a1, 0xa81a664b, 0xc24b8b70, 0xc76c51a3, 0xd192e819, 0xd6990624, 0xf40e3585, 0x106aa070,
+            0x19a4c116, 0x1e376c08, 0x2748774c, 0x34b0bcb5, 0x391c0cb3, 0x4ed8aa4a, 0x5b9cca4f, 0x682e6ff3,
+            0x748f82ee, 0x78a5636f, 0x84c87814, 0x8cc70208, 0x90befffa, 0xa4506ceb, 0xbef9a3f7, 0xc67178f2
+    };
+
+    // HMAC state after the key pads, computed once per password
+    private final int[] innerPadState = new int[HASH_WORDS];
+    private final int[] outerPadState = new int[HASH_WORDS];
+
+    // Work buffers reused by every compression
+    private final int[] state = new int[HASH_WORDS];
+    private final int[] block = new int[BLOCK_WORDS];
+    private final int[] schedule = new int[64];
+    private final int[] u = new int[HASH_WORDS];
+    private final int[] t = new int[HASH_WORDS];
+
+    /**
+     * Derive a key with PBKDF2-HMAC-SHA256.
+     */
+    @NonNull
+    public static byte[] deriveSha256(@NonNull byte[] password, @NonNull byte[] salt, int iterations, int keyLength) {
+        return new Pbkdf2().derive(password, salt, iterations, keyLength);
+    }
+
+    @NonNull
+    public byte[] derive(@NonNull byte[] password, @NonNull byte[] salt, int iterations, int keyLength) {
+        if (iterations < 1) {
+            throw new IllegalArgumentException("iterations must be positive");
+        }
+        if (keyLength < 1) {
+            throw new IllegalArgumentException("keyLength must be positive");
+        }
+        initKey(password);
+        byte[] result = new byte[keyLength];
+        int blocks = (keyLength + HASH_BYTES - 1) / HASH_BYTES;
+        for (int i = 1; i <= blocks; i++) {
+            deriveBlock(salt, i, iterations);
+            int offset = (i - 1) * HASH_BYTES;
+            int length = Math.min(HASH_BYTES, keyLength - offset);
+            for (int j = 0; j < length; j++) {
+                result[offset + j] = (byte) (t[j >>> 2] >>> (24 - 8 * (j & 3)));
+            }
+        }
+        Arrays.fill(t, 0);
+        Arrays.fill(u, 0);
+        Arrays.fill(block, 0);
+        Arrays.fill(schedule, 0);
+        return result;
+    }
+
+    private void initKey(byte[] password) {
+        byte[] key = password;
+        if (key.length > BLOCK_BYTES) {
+            System.arraycopy(IV, 0, state, 0, HASH_WORDS);
+            key = toBytes(hashMessage(state, 0, key));
+        }
+        byte[] pad = new byte[BLOCK_BYTES];
+
+        System.arraycopy(key, 0, pad, 0, key.length);
+        for (int i = 0; i < BLOCK_BYTES; i++) {
+            pad[i] ^= 0x36;
+        }
+        System.arraycopy(IV, 0, innerPadState, 0, HASH_WORDS);
+        loadBlock(pad, 0);
+        compress(innerPadState);
+
+        Arrays.fill(pad, (byte) 0);
+        System.arraycopy(key, 0, pad, 0, key.length);
+        for (int i = 0; i < BLOCK_BYTES; i++) {
+            pad[i] ^= 0x5c;
+        }
+        System.arraycopy(IV, 0, outerPadState, 0, HASH_WORDS);
+        loadBlock(pad, 0);
+        compress(outerPadState);
+        Arrays.fill(pad, (byte) 0);
+    }
+
+    /**
+     * T_i = U_1 ^ U_2 ^ ... ^ U_c, left in t.
+     */
+    private void deriveBlock(byte[] salt, int index, int iterations) {
+        // U_1 = HMAC(P, S || INT(i)), the only message of arbitrary length
+        byte[] message = Arrays.copyOf(salt, salt.length + 4);
+        message[salt.length] = (byte) (index >>> 24);
+        message[salt.length + 1] = (byte) (index >>> 16);
+        message[salt.length + 2] = (byte) (index >>> 8);
+        message[salt.length + 3] = (byte) index;
+        System.arraycopy(innerPadState, 0, state, 0, HASH_WORDS);
+        hashMessage(state, BLOCK_BYTES, message);
+        finishOuter();
+        System.arraycopy(u, 0, t, 0, HASH_WORDS);
+
+        // U_j = HMAC(P, U_j-1): one padded block for each of the inner and outer hash
+        for (int j = 1; j < iterations; j++) {
+            if ((j & CANCEL_CHECK_MASK) == 0 && Thread.currentThread().isInterrupted()) {
+                throw new CancellationException("PBKDF2 interrupted");
+            }
+            System.arraycopy(innerPadState, 0, state, 0, HASH_WORDS);
+            loadDigestBlock(u);
+            compress(state);
+            finishOuter();
+            for (int k = 0; k < HASH_WORDS; k++) {
+                t[k] ^= u[k];
+            }
+        }
+    }
+
+    /**
+     * u = outer hash of the inner digest held in state.
+     */
+    private void finishOuter() {
+        loadDigestBlock(state);
+        System.arraycopy(outerPadState, 0, state, 0, HASH_WORDS);
+        compress(state);
+        System.arraycopy(state, 0, u, 0, HASH_WORDS);
+    }
+
+    /**
+     * Block holding a 32 byte digest, padded as the last block of a 96 byte message (pad block + digest).
+     */
+    private void loadDigestBlock(int[] digest) {
+        System.arraycopy(digest, 0, block, 0, HASH_WORDS);
+        block[8] = 0x80000000;
+        for (int i = 9; i < 15; i++) {
+            block[i] = 0;
+        }
+        block[15] = (BLOCK_BYTES + HASH_BYTES) * 8;
+    }
+
+    /**
+     * Hash a whole message into the given state.
+     * @param prefixLength - bytes already compressed into the state
+     */
+    private int[] hashMessage(int[] target, int prefixLength, byte[] message) {
+        int offset = 0;
+        for (; offset + BLOCK_BYTES <= message.length; offset += BLOCK_BYTES) {
+            loadBlock(message, offset);
+            compress(target);
+        }
+        byte[] tail = new byte[BLOCK_BYTES * 2];
+        int remaining = message.length - offset;
+        System.arraycopy(message, offset, tail, 0, remaining);
+        tail[remaining] = (byte) 0x80;
+        int tailLength = remaining + 9 <= BLOCK_BYTES ? BLOCK_BYTES : BLOCK_BYTES * 2;
+        long bitLength = ((long) prefixLength + message.length) * 8;
+        for (int i = 0; i < 8; i++) {
+            tail[tailLength - 1 - i] = (byte) (bitLength >>> (8 * i));
+        }
+        for (int i = 0; i < tailLength; i += BLOCK_BYTES) {
+            loadBlock(tail, i);
+            compress(target);
+        }
+        return target;
+    }
+
+    private void loadBlock(byte[] bytes, int offset) {
+        for (int i = 0; i < BLOCK_WORDS; i++) {
+            int p = offset + 4 * i;
+            block[i] = (bytes[p] & 0xff) << 24 | (bytes[p + 1] & 0xff) << 16
+                    | (bytes[p + 2] & 0xff) << 8 | (bytes[p + 3] & 0xff);
+        }
+    }
+
+    private void compress(int[] h) {
+        int[] w = schedule;
+        System.arraycopy(block, 0, w, 0, BLOCK_WORDS);
+        for (int i = 16; i < 64; i++) {
+            int w15 = w[i - 15];
+            int w2 = w[i - 2];
+            int s0 = Integer.rotateRight(w15, 7) ^ Integer.rotateRight(w15, 18) ^ (w15 >>> 3);
+            int s1 = Integer.rotateRight(w2, 17) ^ Integer.rotateRight(w2, 19) ^ (w2 >>> 10);
+            w[i] = w[i - 16] + s0 + w[i - 7] + s1;
+        }
+
+        int a = h[0], b = h[1], c = h[2], d = h[3], e = h[4], f = h[5], g = h[6], hh = h[7];
+        for (int i = 0; i < 64; i++) {
+            int s1 = Integer.rotateRight(e, 6) ^ Integer.rotateRight(e, 11) ^ Integer.rotateRight(e, 25);
+            int ch = (e & f) ^ (~e & g);
+            int temp1 = hh + s1 + ch + K[i] + w[i];
+            int s0 = Integer.rotateRight(a, 2) ^ Integer.rotateRight(a, 13) ^ Integer.rotateRight(a, 22);
+            int maj = (a & b) ^ (a & c) ^ (b & c);
+            int temp2 = s0 + maj;
+            hh = g;
+            g = f;
+            f = e;
+            e = d + temp1;
+            d = c;
+            c = b;
+            b = a;
+            a = temp1 + temp2;
+        }
+        h[0] += a;
+        h[1] += b;
+        h[2] += c;
+        h[3] += d;
+        h[4] += e;
+        h[5] += f;
+        h[6] += g;
+        h[7] += hh;
+    }
+
+    private static byte[] toBytes(int[] words) {
+        byte[] bytes = new byte[words.length * 4];
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = (byte) (words[i >>> 2] >>> (24 - 8 * (i & 3)));
+        }
+        return bytes;
+    }
+}
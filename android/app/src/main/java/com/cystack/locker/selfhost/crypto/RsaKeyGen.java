@@ -0,0 +1,86 @@
+package com.cystack.locker.selfhost.crypto;
+
+import androidx.annotation.NonNull;
+
+import java.security.GeneralSecurityException;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.spec.RSAKeyGenParameterSpec;
+import java.util.HashMap;
+
+/**
+ * RSA key pair generation (e = 65537). Keys are encoded as SPKI (public) and PKCS#8 (private).
+ *
+ * After a request for the account/organization key size one spare pair is generated in the background
+ * lane, so the next request, e.g. the organization key after the account key, returns immediately.
+ * Spares belong to the session that asked for them and are dropped on lock and logout, see clearSpares.
+ */
+public class RsaKeyGen {
+    // size of the account and organization keys, the only one worth a spare
+    private static final int SPARE_BITS = 2048;
+
+    private static final HashMap<Integer, KeyPair> spares = new HashMap<>();
+    private static final HashMap<Integer, Boolean> refilling = new HashMap<>();
+    // bumped by clearSpares, a refill started before doesn't keep its pair
+    private static int generation;
+
+    /**
+     * @return spki and pkcs8 encoded keys
+     */
+    @NonNull
+    public static byte[][] generate(int bits) throws GeneralSecurityException {
+        KeyPair keyPair;
+        synchronized (spares) {
+            keyPair = spares.remove(bits);
+        }
+        if (keyPair == null) {
+            keyPair = newKeyPair(bits);
+        }
+        if (bits == SPARE_BITS) {
+            refill(bits);
+        }
+        return new byte[][]{keyPair.getPublic().getEncoded(), keyPair.getPrivate().getEncoded()};
+    }
+
+    /**
+     * Drop the spare pairs, e.g. on logout.
+     */
+    public static void clearSpares() {
+        synchronized (spares) {
+            spares.clear();
+            generation++;
+        }
+    }
+
+    private static KeyPair newKeyPair(int bits) throws GeneralSecurityException {
+        KeyPairGenerator generator = KeyPairGenerator.getInstance("RSA");
+        generator.initialize(new RSAKeyGenParameterSpec(bits, RSAKeyGenParameterSpec.F4));
+        return generator.generateKeyPair();
+    }
+
+    private static void refill(final int bits) {
+        final int started;
+        synchronized (spares) {
+            if (spares.containsKey(bits) || Boolean.TRUE.equals(refilling.get(bits))) {
+                return;
+            }
+            refilling.put(bits, true);
+            started = generation;
+        }
+        CryptoExecutor.getInstance().lane(CryptoExecutor.LANE_BACKGROUND).execute(() -> {
+            KeyPair keyPair = null;
+            try {
+                keyPair = newKeyPair(bits);
+            } catch (GeneralSecurityException ignored) {
+                // the next request generates its own pair
+            } finally {
+                synchronized (spares) {
+                    refilling.remove(bits);
+                    if (keyPair != null && started == generation) {
+                        spares.put(bits, keyPair);
+                    }
+                }
+            }
+        });
+    }
+}
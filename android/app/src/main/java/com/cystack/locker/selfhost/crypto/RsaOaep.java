@@ -0,0 +1,89 @@
+package com.cystack.locker.selfhost.crypto;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.security.GeneralSecurityException;
+import java.security.KeyFactory;
+import java.security.PrivateKey;
+import java.security.spec.PKCS8EncodedKeySpec;
+import java.util.concurrent.Executor;
+
+import javax.crypto.Cipher;
+
+/**
+ * RSA-OAEP (SHA-1) decryption with parsed private keys cached by handle.
+ */
+public class RsaOaep {
+    private static final String TRANSFORMATION = "RSA/ECB/OAEPwithSHA-1andMGF1Padding";
+    private static final int MAX_KEYS = 8;
+    // Below this a batch is cheaper to decrypt on the calling thread
+    private static final int MIN_PARALLEL_BATCH = 8;
+
+    private static final KeyCache<PrivateKey> keys = new KeyCache<>(MAX_KEYS);
+
+    // Cipher instances are not thread safe, and creating one goes through the provider lookup
+    private static final ThreadLocal<Cipher> ciphers = new ThreadLocal<Cipher>() {
+        @Override
+        protected Cipher initialValue() {
+            try {
+                return Cipher.getInstance(TRANSFORMATION);
+            } catch (GeneralSecurityException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+    };
+
+    /**
+     * Parse a PKCS#8 private key, unless it is already cached.
+     * @return the handle of the key
+     */
+    @NonNull
+    public static String importKey(@NonNull byte[] pkcs8) throws GeneralSecurityException {
+        String handle = KeyCache.handleOf(pkcs8);
+        if (!keys.contains(handle)) {
+            keys.put(handle, KeyFactory.getInstance("RSA").generatePrivate(new PKCS8EncodedKeySpec(pkcs8)));
+        }
+        return handle;
+    }
+
+    @Nullable
+    public static PrivateKey getKey(@NonNull String handle) {
+        return keys.get(handle);
+    }
+
+    public static void clearKeys() {
+        keys.clear();
+    }
+
+    @NonNull
+    public static byte[] decrypt(@NonNull PrivateKey privateKey, @NonNull byte[] data) throws GeneralSecurityException {
+        Cipher cipher = ciphers.get();
+        cipher.init(Cipher.DECRYPT_MODE, privateKey);
+        return cipher.doFinal(data);
+    }
+
+    /**
+     * Decrypt every value with the same key, spread over the executor for large batches.
+     * @return the plaintexts in input order, null for values that could not be decrypted
+     */
+    @NonNull
+    public static byte[][] decryptBatch(@NonNull PrivateKey privateKey, @NonNull byte[][] values,
+                                        @NonNull Executor executor, int parallelism)
+            throws InterruptedException {
+        byte[][] results = new byte[values.length][];
+        Batches.run(values.length, MIN_PARALLEL_BATCH, executor, parallelism,
+                (from, to) -> decryptRange(privateKey, values, results, from, to));
+        return results;
+    }
+
+    private static void decryptRange(PrivateKey privateKey, byte[][] values, byte[][] results, int from, int to) {
+        for (int i = from; i < to; i++) {
+            try {
+                results[i] = values[i] != null ? decrypt(privateKey, values[i]) : null;
+            } catch (GeneralSecurityException | IllegalStateException e) {
+                results[i] = null;
+            }
+        }
+    }
+}
@@ -0,0 +1,100 @@
+package com.cystack.locker.selfhost.crypto;
+
+import static org.junit.Assert.assertArrayEquals;
+
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+
+import javax.crypto.SecretKeyFactory;
+import javax.crypto.spec.PBEKeySpec;
+
+/**
+ * {@link Pbkdf2} against the published PBKDF2-HMAC-SHA256 vectors and the platform implementation.
+ * Utils.makeKeyHash unlocks the vault with it, a wrong word would lock every user out.
+ */
+public class Pbkdf2Test {
+
+    @Test
+    public void oneIteration() {
+        assertDerives("password", "salt", 1, 32,
+                "120fb6cffcf8b32c43e7225256c4f837a86548c92ccc35480805987cb70be17b");
+    }
+
+    @Test
+    public void twoIterations() {
+        assertDerives("password", "salt", 2, 32,
+                "ae4d0c95af6b46d32d0adff928f06dd02a303f8ef3c251dfd6e2d85a95474c43");
+    }
+
+    @Test
+    public void manyIterations() {
+        assertDerives("password", "salt", 4096, 32,
+                "c5e478d59288c841aa530db6845c4c8d962893a001ce4e11a4963873aa98134a");
+    }
+
+    @Test
+    public void longPasswordAndSaltOverTwoBlocks() {
+        assertDerives("passwordPASSWORDpassword", "saltSALTsaltSALTsaltSALTsaltSALTsalt", 4096, 40,
+                "348c89dbcbd32b2f32d814b8116e84cf2b17347ebc1800181c4e2a1fb8dd53e1c635518c7dac47e9");
+    }
+
+    @Test
+    public void embeddedZeroBytes() {
+        assertDerives("pass\0word", "sa\0lt", 4096, 16, "89b69d0516f829893c696226650a8687");
+    }
+
+    // RFC 7914, section 11
+    @Test
+    public void rfc7914() {
+        assertDerives("passwd", "salt", 1, 64,
+                "55ac046e56e3089fec1691c22544b605f94185216dde0465e68b9d57c20dacbc"
+                        + "49ca9cccf179b645991664b39d77ef317c71b845b1e30bd509112041d3a19783");
+    }
+
+    @Test
+    public void passwordLongerThanABlockMatchesPlatform() throws Exception {
+        String password = "0123456789abcdef0123456789abcdef0123456789abcdef0123456789abcdef-longer";
+        assertArrayEquals(platform(password, "salt".getBytes(StandardCharsets.UTF_8), 1000, 32),
+                derive(password, "salt", 1000, 32));
+    }
+
+    /**
+     * The two derivations of Utils.makeKeyHash.
+     */
+    @Test
+    public void keyHashParametersMatchPlatform() throws Exception {
+        String masterPassword = "correct horse battery staple";
+        String email = "user@example.com";
+
+        byte[] key = derive(masterPassword, email, 100000, 32);
+        assertArrayEquals(platform(masterPassword, email.getBytes(StandardCharsets.UTF_8), 100000, 32), key);
+
+        String encodedKey = Base64.getEncoder().encodeToString(key);
+        assertArrayEquals(platform(encodedKey, masterPassword.getBytes(StandardCharsets.UTF_8), 3, 32),
+                derive(encodedKey, masterPassword, 3, 32));
+    }
+
+    private static void assertDerives(String password, String salt, int iterations, int keyLength, String hex) {
+        assertArrayEquals(fromHex(hex), derive(password, salt, iterations, keyLength));
+    }
+
+    private static byte[] derive(String password, String salt, int iterations, int keyLength) {
+        return Pbkdf2.deriveSha256(password.getBytes(StandardCharsets.UTF_8),
+                salt.getBytes(StandardCharsets.UTF_8), iterations, keyLength);
+    }
+
+    private static byte[] platform(String password, byte[] salt, int iterations, int keyLength) throws Exception {
+        PBEKeySpec spec = new PBEKeySpec(password.toCharArray(), salt, iterations, keyLength * 8);
+        return SecretKeyFactory.getInstance("PBKDF2WithHmacSHA256").generateSecret(spec).getEncoded();
+    }
+
+    private static byte[] fromHex(String hex) {
+        byte[] bytes = new byte[hex.length() / 2];
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = (byte) Integer.parseInt(hex.substring(2 * i, 2 * i + 2), 16);
+        }
+        return bytes;
+    }
+}
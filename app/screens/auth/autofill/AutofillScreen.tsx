@@ -61,13 +61,13 @@ export const AutoFillScreen: FC<AppStackScreenProps<"autofill">> = observer((pro
         })
 
         if (allLogins.length > 0) {
-          RNAutofillServiceAndroid.useLastItem()
+          RNAutofillServiceAndroid.useLastItem(id)
           if (allLogins[0].login.hasTotp) {
             const otp = getTOTP(parseOTPUri(allLogins[0].login.totp))
             copyToClipboard(otp)
           }
         } else {
-          RNAutofillServiceAndroid.removeLastItem()
+          await RNAutofillServiceAndroid.removeLastItem()
           BackHandler.exitApp()
         }
       }
@@ -7,12 +7,39 @@ import { SymmetricCryptoKey } from 'core/models/domain'
 import { DecryptParameters } from 'core/models/domain/decryptParameters'
 import { Utils } from 'core/misc/utils'
 import RNSimpleCrypto from 'react-native-simple-crypto'
-import { NativeModules } from 'react-native'
+import { DeviceEventEmitter, NativeModules } from 'react-native'
 import { IS_IOS } from '../../../config/constants'
 
 const { RNCryptoServiceIos, RNCryptoServiceAndroid } = NativeModules
 
+export type NativeCryptoMetrics = {
+  [operation: string]: {
+    count: number
+    failed: number
+    cancelled: number
+    totalQueueMs: number
+    maxQueueMs: number
+    totalRunMs: number
+    maxRunMs: number
+  }
+}
+
+// Values decrypted per bridge call
+const AES_BATCH_SIZE = 500
+
+type QueuedAesDecrypt = {
+  value: string
+  resolve: (value: string) => void
+  reject: (reason: any) => void
+}
+
 export class MobileCryptoFunctionService implements CryptoFunctionService {
+  private aesQueue = new Map<SymmetricCryptoKey, QueuedAesDecrypt[]>()
+  private aesFlushScheduled = false
+  private aesKeyHandles = new WeakMap<SymmetricCryptoKey, string>()
+  private rsaKeyHandles = new WeakMap<ArrayBuffer, string>()
+  private fileRequestCount = 0
+
   // DONE
   pbkdf2(
     password: string | ArrayBuffer,
@@ -21,6 +48,9 @@ export class MobileCryptoFunctionService implements CryptoFunctionService {
     iterations: number
   ): Promise<ArrayBuffer> {
     const len = algorithm === 'sha256' ? 32 : 64
+    if (!IS_IOS && algorithm === 'sha256') {
+      return this.pbkdf2Native(password, salt, iterations, len)
+    }
     const nodePassword = this.toNodeValue(password)
     const nodeSalt = this.toNodeValue(salt)
     return new Promise<ArrayBuffer>(async (resolve, reject) => {
@@ -42,6 +72,23 @@ export class MobileCryptoFunctionService implements CryptoFunctionService {
     })
   }
 
+  // Derived off the JS thread by the native PBKDF2 engine
+  private async pbkdf2Native(
+    password: string | ArrayBuffer,
+    salt: string | ArrayBuffer,
+    iterations: number,
+    len: number
+  ): Promise<ArrayBuffer> {
+    const key = await RNCryptoServiceAndroid.pbkdf2Sha256(
+      this.toB64(password),
+      this.toB64(salt),
+      iterations,
+      len,
+      { priority: 'interactive' }
+    )
+    return Utils.fromB64ToArray(key).buffer
+  }
+
   // ref: https://tools.ietf.org/html/rfc5869
   // TODO: not calling very much -> ignore for now
   async hkdf(
@@ -212,6 +259,133 @@ export class MobileCryptoFunctionService implements CryptoFunctionService {
     return Utils.fromBufferToUtf8(decBuf)
   }
 
+  // Every field of a cipher is decrypted separately; calls made in the same tick are sent
+  // to the native engine together instead of as one hmac, compare and decrypt call each
+  aesDecryptQueued = IS_IOS
+    ? undefined
+    : (data: string, iv: string, mac: string, key: SymmetricCryptoKey): Promise<string> => {
+        return new Promise<string>((resolve, reject) => {
+          const value = mac != null ? `${iv}|${data}|${mac}` : `${iv}|${data}`
+          const queue = this.aesQueue.get(key)
+          if (queue) {
+            queue.push({ value, resolve, reject })
+          } else {
+            this.aesQueue.set(key, [{ value, resolve, reject }])
+          }
+          if (!this.aesFlushScheduled) {
+            this.aesFlushScheduled = true
+            setTimeout(() => this.flushAesQueue(), 0)
+          }
+        })
+      }
+
+  private flushAesQueue() {
+    const queue = this.aesQueue
+    this.aesQueue = new Map()
+    this.aesFlushScheduled = false
+    queue.forEach((items, key) => {
+      for (let i = 0; i < items.length; i += AES_BATCH_SIZE) {
+        const batch = items.slice(i, i + AES_BATCH_SIZE)
+        this.decryptAesBatch(
+          batch.map((item) => item.value),
+          key
+        )
+          .then((values) => batch.forEach((item, index) => item.resolve(values[index])))
+          .catch((e) => batch.forEach((item) => item.reject(e)))
+      }
+    })
+  }
+
+  private async decryptAesBatch(
+    values: string[],
+    key: SymmetricCryptoKey,
+    retry = true
+  ): Promise<(string | null)[]> {
+    const keyHandle = await this.aesKeyHandle(key)
+    try {
+      return await RNCryptoServiceAndroid.decryptAesBatch(values, keyHandle, { priority: 'normal' })
+    } catch (e) {
+      // The native key cache is bounded, import the key again once
+      if (!retry || e?.code === 'E_CANCELLED') {
+        throw e
+      }
+      this.aesKeyHandles.delete(key)
+      return this.decryptAesBatch(values, key, false)
+    }
+  }
+
+  private async aesKeyHandle(key: SymmetricCryptoKey): Promise<string> {
+    let keyHandle = this.aesKeyHandles.get(key)
+    if (keyHandle == null) {
+      keyHandle = await RNCryptoServiceAndroid.importAesKey(key.encKeyB64, key.macKeyB64 ?? null)
+      this.aesKeyHandles.set(key, keyHandle)
+    }
+    return keyHandle
+  }
+
+  // Attachments are streamed between files natively, only paths and progress cross the bridge
+  aesEncryptFile = IS_IOS
+    ? undefined
+    : async (
+        inputPath: string,
+        outputPath: string,
+        key: SymmetricCryptoKey,
+        onProgress?: (processed: number, total: number) => void
+      ): Promise<number> => {
+        return this.withFileProgress(onProgress, async (requestId) =>
+          RNCryptoServiceAndroid.encryptFile(
+            inputPath,
+            outputPath,
+            await this.aesKeyHandle(key),
+            key.encType,
+            { requestId }
+          )
+        )
+      }
+
+  aesDecryptFile = IS_IOS
+    ? undefined
+    : async (
+        inputPath: string,
+        outputPath: string,
+        key: SymmetricCryptoKey,
+        onProgress?: (processed: number, total: number) => void
+      ): Promise<boolean> => {
+        const size: number = await this.withFileProgress(onProgress, async (requestId) =>
+          RNCryptoServiceAndroid.decryptFile(
+            inputPath,
+            outputPath,
+            await this.aesKeyHandle(key),
+            key.encType,
+            { requestId }
+          )
+        )
+        return size >= 0
+      }
+
+  private async withFileProgress<T>(
+    onProgress: ((processed: number, total: number) => void) | undefined,
+    operation: (requestId: string | null) => Promise<T>
+  ): Promise<T> {
+    if (onProgress == null) {
+      return operation(null)
+    }
+    const requestId = `file-${++this.fileRequestCount}`
+    const subscription = DeviceEventEmitter.addListener(
+      RNCryptoServiceAndroid.FILE_PROGRESS_EVENT,
+      (event: { requestId: string; processed: number; total: number }) => {
+        if (event.requestId === requestId) {
+          onProgress(event.processed, event.total)
+        }
+      }
+    )
+    try {
+      return await operation(requestId)
+    } finally {
+      subscription.remove()
+    }
+  }
+
   // DONE
   aesDecrypt(data: ArrayBuffer, iv: ArrayBuffer, key: ArrayBuffer): Promise<ArrayBuffer> {
     const nodeData = this.toNodeBuffer(data)
@@ -257,6 +431,87 @@ export class MobileCryptoFunctionService implements CryptoFunctionService {
     return Utils.fromB64ToArray(decipher).buffer
   }
 
+  // One bridge call for the whole batch, the key is parsed once and cached natively
+  async rsaDecryptBatch(
+    data: ArrayBuffer[],
+    privateKey: ArrayBuffer,
+    algorithm: 'sha1' | 'sha256'
+  ): Promise<ArrayBuffer[]> {
+    if (algorithm === 'sha256') {
+      throw new Error('Node crypto does not support RSA-OAEP SHA-256')
+    }
+    if (IS_IOS) {
+      return Promise.all(data.map((d) => this.rsaDecrypt(d, privateKey, algorithm)))
+    }
+
+    const decrypted = await this.decryptRsaBatch(
+      data.map((d) => Utils.fromBufferToB64(d)),
+      privateKey
+    )
+    return decrypted.map((value) => {
+      if (value == null) {
+        throw new Error('RSA decryption failed.')
+      }
+      return Utils.fromB64ToArray(value).buffer
+    })
+  }
+
+  private async decryptRsaBatch(
+    values: string[],
+    privateKey: ArrayBuffer,
+    retry = true
+  ): Promise<(string | null)[]> {
+    const keyHandle = await this.rsaKeyHandle(privateKey)
+    try {
+      return await RNCryptoServiceAndroid.decryptOAEPSHA1Batch(values, keyHandle, {
+        priority: 'normal',
+      })
+    } catch (e) {
+      // The native key cache is bounded, import the key again once
+      if (!retry || e?.code === 'E_CANCELLED') {
+        throw e
+      }
+      this.rsaKeyHandles.delete(privateKey)
+      return this.decryptRsaBatch(values, privateKey, false)
+    }
+  }
+
+  private async rsaKeyHandle(privateKey: ArrayBuffer): Promise<string> {
+    let keyHandle = this.rsaKeyHandles.get(privateKey)
+    if (keyHandle == null) {
+      keyHandle = await RNCryptoServiceAndroid.importRsaPrivateKey(
+        Utils.fromBufferToB64(privateKey)
+      )
+      this.rsaKeyHandles.set(privateKey, keyHandle)
+    }
+    return keyHandle
+  }
+
+  // Forget every key imported into the native module, they are imported again on next use
+  clearKeyCache = IS_IOS
+    ? undefined
+    : async () => {
+        this.aesKeyHandles = new WeakMap<SymmetricCryptoKey, string>()
+        this.rsaKeyHandles = new WeakMap<ArrayBuffer, string>()
+        await RNCryptoServiceAndroid.clearKeys()
+      }
+
+  // Queue and run times of the native crypto executor, per operation (Android only)
+  async getNativeCryptoMetrics(reset = false): Promise<NativeCryptoMetrics | null> {
+    if (IS_IOS) {
+      return null
+    }
+    return RNCryptoServiceAndroid.getMetrics(reset)
+  }
+
+  // Cancel a native operation started with options.requestId, its promise rejects with E_CANCELLED
+  async cancelNativeOperation(requestId: string): Promise<boolean> {
+    if (IS_IOS) {
+      return false
+    }
+    return RNCryptoServiceAndroid.cancelOperation(requestId)
+  }
+
   rsaExtractPublicKey(privateKey: ArrayBuffer): Promise<ArrayBuffer> {
     const privateKeyByteString = Utils.fromBufferToByteString(privateKey)
     const privateKeyAsn1 = forge.asn1.fromDer(privateKeyByteString)
@@ -270,6 +525,15 @@ export class MobileCryptoFunctionService implements CryptoFunctionService {
 
   // DONE
   async rsaGenerateKeyPair(length: 1024 | 2048 | 4096): Promise<[ArrayBuffer, ArrayBuffer]> {
+    if (!IS_IOS) {
+      // SPKI / PKCS#8 straight from the platform generator, no PEM round trip through forge
+      const keyPair: { publicKey: string; privateKey: string } =
+        await RNCryptoServiceAndroid.generateRsaKeyPair(length, { priority: 'interactive' })
+      return [
+        Utils.fromB64ToArray(keyPair.publicKey).buffer,
+        Utils.fromB64ToArray(keyPair.privateKey).buffer,
+      ]
+    }
     return new Promise<[ArrayBuffer, ArrayBuffer]>(async (resolve, reject) => {
       try {
         const keyPair = await RNSimpleCrypto.RSA.generateKeys(length)
@@ -334,6 +598,10 @@ export class MobileCryptoFunctionService implements CryptoFunctionService {
     return nodeValue
   }
 
+  private toB64(value: string | ArrayBuffer): string {
+    return Utils.fromBufferToB64(this.toArrayBuffer(value))
+  }
+
   private toNodeBuffer(value: ArrayBuffer): Buffer {
     return Buffer.from(new Uint8Array(value) as any)
   }
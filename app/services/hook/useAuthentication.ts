@@ -10,6 +10,7 @@ import { Utils } from '../coreService/utils'
 import ReactNativeBiometrics from 'react-native-biometrics'
 import { Logger, delay, getUrlParameterByName } from 'app/utils/utils'
 import { saveShared } from 'app/utils/keychain'
+import { clearPendingSaves } from 'app/utils/autofillHelper'
 import { StorageKey, remove, removeSecure } from 'app/utils/storage'
 
 export function useAuthentication() {
@@ -554,6 +555,7 @@ export function useAuthentication() {
 
   // Lock screen
   const lock = async () => {
+    await cryptoService.clearKeyCache()
     folderService.clearCache()
     cipherService.clearCache()
     // searchService.clearCache()
@@ -576,6 +578,7 @@ export function useAuthentication() {
 
     // Reset shared data
     await saveShared('autofill', '{}')
+    clearPendingSaves()
 
     // Reset push noti data
     await remove(StorageKey.PUSH_NOTI_DATA)
@@ -18,6 +18,7 @@ import {
 import { Cipher, EncString, SymmetricCryptoKey } from "core/models/domain"
 import { FolderView } from "core/models/view/folderView"
 import { AutofillDataType, loadShared, saveShared } from "app/utils/keychain"
+import { ackPendingSaves, getPendingSaves } from "app/utils/autofillHelper"
 import { GetCiphersParams } from "app/static/types"
 import { ImportCiphersRequest } from "core/models/request/importCiphersRequest"
 import { KvpRequest } from "core/models/request/kvpRequest"
@@ -31,6 +32,9 @@ import { CipherData, FolderData } from "core/models/data"
 import { OrganizationData } from "core/models/data/organizationData"
 import { useTheme } from "../context"
 
+// Credentials read from the Android pending save queue at once
+const PENDING_SAVES_BATCH = 20
+
 export function useCipherData() {
   const { cipherStore, folderStore, uiStore, collectionStore, user, enterpriseStore } = useStores()
   const {
@@ -396,6 +400,42 @@ export function useCipherData() {
     await saveShared("autofill", JSON.stringify(sharedData))
   }
 
+  // Add the credentials queued by the Android save screen, a batch at a time
+  const _drainPendingSaves = async () => {
+    let hasUpdate = false
+    for (;;) {
+      const { entries, last } = await getPendingSaves(PENDING_SAVES_BATCH)
+      if (last < 0) {
+        return hasUpdate
+      }
+      for (const entry of entries) {
+        // confirmed while another account was signed in, acked with the batch and never added here
+        if (!entry.account || entry.account !== user.email) {
+          continue
+        }
+        const payload = newCipher(CipherType.Login)
+        const data = new LoginView()
+        data.username = entry.username
+        data.password = entry.password
+        if (entry.uri) {
+          const uriView = new LoginUriView()
+          uriView.uri = entry.uri
+          data.uris = [uriView]
+        }
+        payload.name = entry.name
+        payload.login = data
+        await _offlineCreateCipher({
+          cipher: payload,
+          collectionIds: [],
+        })
+        hasUpdate = true
+        // a failure later in the batch must not create this one again
+        ackPendingSaves(entry.seq)
+      }
+      ackPendingSaves(last)
+    }
+  }
+
   // Sync autofill data
   const syncAutofillData = async () => {
     try {
@@ -448,6 +488,11 @@ export function useCipherData() {
         }
       }
 
+      // Create passwords saved from the native Android save screen
+      if (await _drainPendingSaves()) {
+        hasUpdate = true
+      }
+
       await _updateAutofillData()
 
       if (hasUpdate && !uiStore.isOffline) {
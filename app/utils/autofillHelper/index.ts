@@ -37,6 +37,78 @@ export const AutofillServiceEnabled: (
   return RNAutofillServiceAndroid.isAutofillServiceActived(callback)
 }
 
+export type FillLatencyPhase = {
+  count: number
+  meanMs: number
+  maxMs: number
+  // upper bound of the bucket holding the percentile, -1 when above the last bound, 0 without samples
+  p50Ms: number
+  p95Ms: number
+  buckets: number[]
+}
+
+export type FillLatency = {
+  bucketBoundsMs: number[]
+  structure: FillLatencyPhase
+  traversal: FillLatencyPhase
+  classification: FillLatencyPhase
+  lookup: FillLatencyPhase
+  response: FillLatencyPhase
+  total: FillLatencyPhase
+}
+
+// Rolling fill request timings recorded by the Android autofill service
+export const getFillLatency: () => Promise<FillLatency | null> = async () => {
+  if (Platform.OS !== "android") {
+    return null
+  }
+  return RNAutofillServiceAndroid.getFillLatency()
+}
+
+export const resetFillLatency = () => {
+  if (Platform.OS === "android") {
+    RNAutofillServiceAndroid.resetFillLatency()
+  }
+}
+
+export type PendingSave = {
+  seq: number
+  createdAt: number
+  // email of the account the credential was confirmed for, null for entries queued by older versions
+  account: string | null
+  name: string | null
+  username: string | null
+  password: string | null
+  uri: string | null
+}
+
+export type PendingSaveBatch = {
+  entries: PendingSave[]
+  // pass to ackPendingSaves once the entries are stored, -1 when the queue is empty
+  last: number
+}
+
+// Credentials confirmed in the native Android save screen, oldest first
+export const getPendingSaves: (limit: number) => Promise<PendingSaveBatch> = async (limit) => {
+  if (Platform.OS !== "android") {
+    return { entries: [], last: -1 }
+  }
+  return RNAutofillServiceAndroid.getPendingSaves(limit)
+}
+
+export const ackPendingSaves = (last: number) => {
+  if (Platform.OS === "android") {
+    RNAutofillServiceAndroid.ackPendingSaves(last)
+  }
+}
+
+// Drop the credentials of the native save screen, on sign out
+export const clearPendingSaves = () => {
+  if (Platform.OS === "android") {
+    RNAutofillServiceAndroid.clearPendingSaves()
+  }
+}
+
 export const parseSearchText: (bundle: string) => string[] = (bundle) => {
   if (!bundle) return []
   const meaninglessSearch = ["com", "net", "app", "package", "www"]
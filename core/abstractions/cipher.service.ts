@@ -39,6 +39,8 @@ export abstract class CipherService {
     saveAttachmentWithServer: (cipher: Cipher, unencryptedFile: any, admin?: boolean) => Promise<Cipher>;
     saveAttachmentRawWithServer: (cipher: Cipher, filename: string, data: ArrayBuffer,
         admin?: boolean) => Promise<Cipher>;
+    saveAttachmentFileWithServer: (cipher: Cipher, filename: string, path: string,
+        admin?: boolean) => Promise<Cipher>;
 
     saveCollectionsWithServer: (cipher: Cipher) => Promise<any>;
     upsert: (cipher: CipherData | CipherData[]) => Promise<any>;
@@ -35,6 +35,7 @@ export abstract class CryptoService {
     clearOrgKeys: (memoryOnly?: boolean) => Promise<any>;
     clearPinProtectedKey: () => Promise<any>;
     clearKeys: () => Promise<any>;
+    clearKeyCache: () => Promise<void>;
     toggleKey: () => Promise<any>;
     makeKey: (password: string, salt: string, kdf: KdfType, kdfIterations: number) => Promise<SymmetricCryptoKey>;
     makeKeyFromPin: (pin: string, salt: string, kdf: KdfType, kdfIterations: number,
@@ -49,11 +50,17 @@ export abstract class CryptoService {
     remakeEncKey: (key: SymmetricCryptoKey, encKey?: SymmetricCryptoKey) => Promise<[SymmetricCryptoKey, EncString]>;
     encrypt: (plainValue: string | ArrayBuffer, key?: SymmetricCryptoKey) => Promise<EncString>;
     encryptToBytes: (plainValue: ArrayBuffer, key?: SymmetricCryptoKey) => Promise<EncArrayBuffer>;
+    encryptFile: (inputPath: string, outputPath: string, key?: SymmetricCryptoKey,
+        onProgress?: (processed: number, total: number) => void) => Promise<number>;
     rsaEncrypt: (data: ArrayBuffer, publicKey?: ArrayBuffer) => Promise<EncString>;
     rsaDecrypt: (encValue: string, privateKeyValue?: ArrayBuffer) => Promise<ArrayBuffer>;
+    rsaDecryptBatch: (encValues: string[], privateKeyValue?: ArrayBuffer) => Promise<ArrayBuffer[]>;
     decryptToBytes: (encString: EncString, key?: SymmetricCryptoKey) => Promise<ArrayBuffer>;
     decryptToUtf8: (encString: EncString, key?: SymmetricCryptoKey) => Promise<string>;
     decryptFromBytes: (encBuf: ArrayBuffer, key: SymmetricCryptoKey) => Promise<ArrayBuffer>;
+    decryptFile: (inputPath: string, outputPath: string, key: SymmetricCryptoKey,
+        onProgress?: (processed: number, total: number) => void) => Promise<boolean>;
+    canEncryptFiles: () => boolean;
     randomNumber: (min: number, max: number) => Promise<number>;
     validateKey: (key: SymmetricCryptoKey) => Promise<boolean>;
 }
@@ -23,9 +23,23 @@ export abstract class CryptoFunctionService {
         DecryptParameters<ArrayBuffer | string>;
 
     aesDecryptFast: (parameters: DecryptParameters<ArrayBuffer | string>) => Promise<string>;
+    // Optional: verifies the mac and decrypts, coalescing concurrent calls into native batches.
+    // Resolves null when the mac check fails.
+    aesDecryptQueued?: (data: string, iv: string, mac: string, key: SymmetricCryptoKey) => Promise<string>;
     aesDecrypt: (data: ArrayBuffer, iv: ArrayBuffer, key: ArrayBuffer) => Promise<ArrayBuffer>;
+    // Optional: streams a file in the EncArrayBuffer layout (encType | iv | mac | data) to another file.
+    // Resolves the size of the encrypted file.
+    aesEncryptFile?: (inputPath: string, outputPath: string, key: SymmetricCryptoKey,
+        onProgress?: (processed: number, total: number) => void) => Promise<number>;
+    // Optional: the inverse of aesEncryptFile. Resolves false when the mac check fails.
+    aesDecryptFile?: (inputPath: string, outputPath: string, key: SymmetricCryptoKey,
+        onProgress?: (processed: number, total: number) => void) => Promise<boolean>;
+    // Optional: drops the keys cached by a native implementation, on lock and logout.
+    clearKeyCache?: () => Promise<void>;
     rsaEncrypt: (data: ArrayBuffer, publicKey: ArrayBuffer, algorithm: 'sha1' | 'sha256') => Promise<ArrayBuffer>;
     rsaDecrypt: (data: ArrayBuffer, privateKey: ArrayBuffer, algorithm: 'sha1' | 'sha256') => Promise<ArrayBuffer>;
+    rsaDecryptBatch: (data: ArrayBuffer[], privateKey: ArrayBuffer, algorithm: 'sha1' | 'sha256') =>
+        Promise<ArrayBuffer[]>;
     rsaExtractPublicKey: (privateKey: ArrayBuffer) => Promise<ArrayBuffer>;
     rsaGenerateKeyPair: (length: 1024 | 2048 | 4096) => Promise<[ArrayBuffer, ArrayBuffer]>;
     randomBytes: (length: number) => Promise<ArrayBuffer>;
@@ -9,4 +9,6 @@ export abstract class FileUploadService {
 
     uploadCipherAttachment: (admin: boolean, uploadData: AttachmentUploadDataResponse, fileName: EncString,
         encryptedFileData: EncArrayBuffer) => Promise<any>;
+    uploadCipherAttachmentFile: (admin: boolean, uploadData: AttachmentUploadDataResponse, fileName: EncString,
+        encryptedFilePath: string) => Promise<any>;
 }
@@ -180,6 +180,10 @@ export class Utils {
         });
     }
 
+    static toFileUri(path: string): string {
+        return path.startsWith('file://') ? path : 'file://' + path;
+    }
+
     static isGuid(id: string) {
         return RegExp(/^[0-9a-f]{8}-[0-9a-f]{4}-[1-5][0-9a-f]{3}-[89ab][0-9a-f]{3}-[0-9a-f]{12}$/, 'i').test(id);
     }
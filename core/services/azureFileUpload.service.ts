@@ -1,3 +1,5 @@
+import RNFS from 'react-native-fs';
+
 import { LogService } from '../abstractions/log.service';
 
 import { Utils } from '../misc/utils';
@@ -6,29 +8,49 @@ import { EncArrayBuffer } from '../models/domain/encArrayBuffer';
 
 const MAX_SINGLE_BLOB_UPLOAD_SIZE = 256 * 1024 * 1024; // 256 MiB
 const MAX_BLOCKS_PER_BLOB = 50000;
+const FILE_BLOCK_SIZE = 4 * 1024 * 1024; // 4 MiB
+
+// Encrypted data to upload block by block, either in memory or read from a file
+interface UploadBody {
+    size: number;
+    slice: (start: number, end: number) => Promise<ArrayBuffer>;
+}
 
 export class AzureFileUploadService {
     constructor(private logService: LogService) { }
 
     async upload(url: string, data: EncArrayBuffer, renewalCallback: () => Promise<string>) {
         if (data.buffer.byteLength <= MAX_SINGLE_BLOB_UPLOAD_SIZE) {
-            return await this.azureUploadBlob(url, data);
+            return await this.azureUploadBlob(url, data.buffer);
         } else {
-            return await this.azureUploadBlocks(url, data, renewalCallback);
+            return await this.azureUploadBlocks(url, {
+                size: data.buffer.byteLength,
+                slice: async (start, end) => data.buffer.slice(start, end),
+            }, renewalCallback);
         }
     }
 
-    private async azureUploadBlob(url: string, data: EncArrayBuffer) {
+    // Always in blocks of at most FILE_BLOCK_SIZE, only the block being sent is held in memory
+    async uploadFile(url: string, path: string, renewalCallback: () => Promise<string>) {
+        const stat = await RNFS.stat(path);
+        return await this.azureUploadBlocks(url, {
+            size: Number(stat.size),
+            slice: async (start, end) =>
+                Utils.fromB64ToArray(await RNFS.read(path, end - start, start, 'base64')).buffer,
+        }, renewalCallback, FILE_BLOCK_SIZE);
+    }
+
+    private async azureUploadBlob(url: string, data: ArrayBuffer) {
         const urlObject = Utils.getUrl(url);
         const headers = new Headers({
             'x-ms-date': new Date().toUTCString(),
             'x-ms-version': urlObject.searchParams.get('sv'),
-            'Content-Length': data.buffer.byteLength.toString(),
+            'Content-Length': data.byteLength.toString(),
             'x-ms-blob-type': 'BlockBlob',
         });
 
         const request = new Request(url, {
-            body: data.buffer,
+            body: data,
             cache: 'no-store',
             method: 'PUT',
             headers,
@@ -41,11 +63,12 @@ export class AzureFileUploadService {
         }
     }
 
-    private async azureUploadBlocks(url: string, data: EncArrayBuffer, renewalCallback: () => Promise<string>) {
+    private async azureUploadBlocks(url: string, data: UploadBody, renewalCallback: () => Promise<string>,
+        maxBlockSize = Number.MAX_SAFE_INTEGER) {
         const baseUrl = Utils.getUrl(url);
-        const blockSize = this.getMaxBlockSize(baseUrl.searchParams.get('sv'));
+        const blockSize = Math.min(this.getMaxBlockSize(baseUrl.searchParams.get('sv')), maxBlockSize);
         let blockIndex = 0;
-        const numBlocks = Math.ceil(data.buffer.byteLength / blockSize);
+        const numBlocks = Math.ceil(data.size / blockSize);
         const blocksStaged: string[] = [];
 
         if (numBlocks > MAX_BLOCKS_PER_BLOB) {
@@ -59,7 +82,7 @@ export class AzureFileUploadService {
             blockUrl.searchParams.append('comp', 'block');
             blockUrl.searchParams.append('blockid', blockId);
             const start = blockIndex * blockSize;
-            const blockData = data.buffer.slice(start, start + blockSize);
+            const blockData = await data.slice(start, Math.min(start + blockSize, data.size));
             const blockHeaders = new Headers({
                 'x-ms-date': new Date().toUTCString(),
                 'x-ms-version': blockUrl.searchParams.get('sv'),
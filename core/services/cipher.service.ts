@@ -55,6 +55,7 @@ import { ConstantsService } from './constants.service';
 import { sequentialize } from '../misc/sequentialize';
 import { Utils } from '../misc/utils';
 import _ from 'lodash'
+import RNFS from 'react-native-fs'
 import { BACKGROUND_DECRYPT_BATCH_SIZE, BACKGROUND_DECRYPT_FIRST_BATCH_SIZE, BACKGROUND_DECRYPT_REINDEX_EVERY } from 'app/static/constants';
 import { AppEventType, EventBus } from 'app/utils/eventBus';
 
@@ -679,6 +680,11 @@ export class CipherService implements CipherServiceAbstraction {
     }
 
     saveAttachmentWithServer(cipher: Cipher, unencryptedFile: any, admin = false): Promise<Cipher> {
+        // A picked file copied to local storage ({ uri, name }) is encrypted and uploaded from disk
+        const uri: string = unencryptedFile?.uri;
+        if (uri != null && (uri.startsWith('file://') || uri.startsWith('/')) && this.cryptoService.canEncryptFiles()) {
+            return this.saveAttachmentFileWithServer(cipher, unencryptedFile.name, uri, admin);
+        }
         return new Promise((resolve, reject) => {
             const reader = new FileReader();
             reader.readAsArrayBuffer(unencryptedFile);
@@ -704,11 +710,38 @@ export class CipherService implements CipherServiceAbstraction {
 
         const dataEncKey = await this.cryptoService.makeEncKey(key);
         const encData = await this.cryptoService.encryptToBytes(data, dataEncKey[0]);
+        return this.postAttachmentWithServer(cipher, encFileName, dataEncKey[1], encData,
+            encData.buffer.byteLength, admin);
+    }
+
+    /**
+     * Same as saveAttachmentRawWithServer for a local file: it is encrypted into a temporary file and
+     * uploaded from there, the file contents never reach JS.
+     */
+    async saveAttachmentFileWithServer(cipher: Cipher, filename: string, path: string,
+        admin = false): Promise<Cipher> {
+        const key = await this.cryptoService.getOrgKey(cipher.organizationId);
+        const encFileName = await this.cryptoService.encrypt(filename, key);
 
+        const dataEncKey = await this.cryptoService.makeEncKey(key);
+        const encPath = this.attachmentTempPath('upload');
+        try {
+            const fileSize = await this.cryptoService.encryptFile(path, encPath, dataEncKey[0]);
+            return await this.postAttachmentWithServer(cipher, encFileName, dataEncKey[1], encPath, fileSize, admin);
+        } finally {
+            await this.deleteAttachmentTempFiles(encPath);
+        }
+    }
+
+    /**
+     * @param encData - the encrypted attachment, or the path of the file holding it
+     */
+    private async postAttachmentWithServer(cipher: Cipher, encFileName: EncString, dataEncKey: EncString,
+        encData: EncArrayBuffer | string, fileSize: number, admin: boolean): Promise<Cipher> {
         const request: AttachmentRequest = {
-            key: dataEncKey[1].encryptedString,
+            key: dataEncKey.encryptedString,
             fileName: encFileName.encryptedString,
-            fileSize: encData.buffer.byteLength,
+            fileSize,
             adminRequest: admin,
         };
 
@@ -716,10 +749,14 @@ export class CipherService implements CipherServiceAbstraction {
         try {
             const uploadDataResponse = await this.apiService.postCipherAttachment(cipher.id, request);
             response = admin ? uploadDataResponse.cipherMiniResponse : uploadDataResponse.cipherResponse;
-            await this.fileUploadService.uploadCipherAttachment(admin, uploadDataResponse, encFileName, encData);
+            if (typeof encData === 'string') {
+                await this.fileUploadService.uploadCipherAttachmentFile(admin, uploadDataResponse, encFileName, encData);
+            } else {
+                await this.fileUploadService.uploadCipherAttachment(admin, uploadDataResponse, encFileName, encData);
+            }
         } catch (e) {
             if (e instanceof ErrorResponse && (e as ErrorResponse).statusCode === 404 || (e as ErrorResponse).statusCode === 405) {
-                response = await this.legacyServerAttachmentFileUpload(admin, cipher.id, encFileName, encData, dataEncKey[1]);
+                response = await this.legacyServerAttachmentFileUpload(admin, cipher.id, encFileName, encData, dataEncKey);
             } else if (e instanceof ErrorResponse) {
                 throw new Error((e as ErrorResponse).getSingleMessage());
             } else {
@@ -740,21 +777,26 @@ export class CipherService implements CipherServiceAbstraction {
      * This method still exists for backward compatibility with old server versions.
      */
     async legacyServerAttachmentFileUpload(admin: boolean, cipherId: string, encFileName: EncString,
-        encData: EncArrayBuffer, key: EncString) {
+        encData: EncArrayBuffer | string, key: EncString) {
         const fd = new FormData();
-        try {
-            const blob = new Blob([encData.buffer], { type: 'application/octet-stream' });
+        if (typeof encData === 'string') {
             fd.append('key', key.encryptedString);
-            fd.append('data', blob, encFileName.encryptedString);
-        } catch (e) {
-            if (Utils.isNode && !Utils.isBrowser) {
+            fd.append('data', this.attachmentFilePart(encData, encFileName) as any);
+        } else {
+            try {
+                const blob = new Blob([encData.buffer], { type: 'application/octet-stream' });
                 fd.append('key', key.encryptedString);
-                fd.append('data', Buffer.from(encData.buffer) as any, {
-                    filepath: encFileName.encryptedString,
-                    contentType: 'application/octet-stream',
-                } as any);
-            } else {
-                throw e;
+                fd.append('data', blob, encFileName.encryptedString);
+            } catch (e) {
+                if (Utils.isNode && !Utils.isBrowser) {
+                    fd.append('key', key.encryptedString);
+                    fd.append('data', Buffer.from(encData.buffer) as any, {
+                        filepath: encFileName.encryptedString,
+                        contentType: 'application/octet-stream',
+                    } as any);
+                } else {
+                    throw e;
+                }
             }
         }
 
@@ -1056,6 +1098,9 @@ export class CipherService implements CipherServiceAbstraction {
 
     private async shareAttachmentWithServer(attachmentView: AttachmentView, cipherId: string,
         organizationId: string): Promise<any> {
+        if (this.cryptoService.canEncryptFiles()) {
+            return this.shareAttachmentFileWithServer(attachmentView, cipherId, organizationId);
+        }
         const attachmentResponse = await this.apiService.nativeFetch(
             new Request(attachmentView.url, { cache: 'no-store' }));
         if (attachmentResponse.status !== 200) {
@@ -1094,6 +1139,68 @@ export class CipherService implements CipherServiceAbstraction {
         }
     }
 
+    // shareAttachmentWithServer through temporary files: download, decrypt and re-encrypt natively
+    private async shareAttachmentFileWithServer(attachmentView: AttachmentView, cipherId: string,
+        organizationId: string): Promise<any> {
+        const downloadPath = this.attachmentTempPath('download');
+        const plainPath = this.attachmentTempPath('plain');
+        const encPath = this.attachmentTempPath('share');
+        try {
+            const download = await RNFS.downloadFile({
+                fromUrl: attachmentView.url,
+                toFile: downloadPath,
+                cacheable: false,
+            }).promise;
+            if (download.statusCode !== 200) {
+                throw Error('Failed to download attachment: ' + download.statusCode.toString());
+            }
+            if (!await this.cryptoService.decryptFile(downloadPath, plainPath, null)) {
+                throw Error('Failed to decrypt attachment.');
+            }
+
+            const key = await this.cryptoService.getOrgKey(organizationId);
+            const encFileName = await this.cryptoService.encrypt(attachmentView.fileName, key);
+            const dataEncKey = await this.cryptoService.makeEncKey(key);
+            await this.cryptoService.encryptFile(plainPath, encPath, dataEncKey[0]);
+
+            const fd = new FormData();
+            fd.append('key', dataEncKey[1].encryptedString);
+            fd.append('data', this.attachmentFilePart(encPath, encFileName) as any);
+            try {
+                await this.apiService.postShareCipherAttachment(cipherId, attachmentView.id, fd, organizationId);
+            } catch (e) {
+                throw new Error((e as ErrorResponse).getSingleMessage());
+            }
+        } finally {
+            await this.deleteAttachmentTempFiles(downloadPath, plainPath, encPath);
+        }
+    }
+
+    // React Native streams a { uri } form part from disk
+    private attachmentFilePart(path: string, encFileName: EncString) {
+        return {
+            uri: Utils.toFileUri(path),
+            name: encFileName.encryptedString,
+            type: 'application/octet-stream',
+        };
+    }
+
+    private attachmentTempPath(purpose: string): string {
+        return `${RNFS.CachesDirectoryPath}/attachment-${purpose}-${Utils.newGuid()}`;
+    }
+
+    private async deleteAttachmentTempFiles(...paths: string[]) {
+        await Promise.all(paths.map(async path => {
+            try {
+                if (await RNFS.exists(path)) {
+                    await RNFS.unlink(path);
+                }
+            } catch (e) {
+                // best effort, the cache directory is cleared by the system
+            }
+        }));
+    }
+
     private async encryptObjProperty<V extends View, D extends Domain>(model: V, obj: D,
         map: any, key: SymmetricCryptoKey): Promise<void> {
         const promises = [];
@@ -277,6 +277,7 @@ export class CryptoService implements CryptoServiceAbstraction {
     const orgKeys: Map<string, SymmetricCryptoKey> = new Map<string, SymmetricCryptoKey>()
     let setKey = false
 
+    const pendingOrgIds: string[] = []
     for (const orgId in encOrgKeys) {
       if (!encOrgKeys.hasOwnProperty(orgId)) {
         continue
@@ -290,12 +291,18 @@ export class CryptoService implements CryptoServiceAbstraction {
         continue
       }
 
-      const decValue = await this.rsaDecrypt(encOrgKeys[orgId])
-      orgKeys.set(orgId, new SymmetricCryptoKey(decValue))
-      setKey = true
+      pendingOrgIds.push(orgId)
+    }
 
-      // TODO: remove this when RSA problem is fixed
-      decOrgKeys[orgId] = Utils.fromBufferToB64(decValue)
+    if (pendingOrgIds.length > 0) {
+      const decValues = await this.rsaDecryptBatch(pendingOrgIds.map((orgId) => encOrgKeys[orgId]))
+      pendingOrgIds.forEach((orgId, i) => {
+        orgKeys.set(orgId, new SymmetricCryptoKey(decValues[i]))
+        setKey = true
+
+        // TODO: remove this when RSA problem is fixed
+        decOrgKeys[orgId] = Utils.fromBufferToB64(decValues[i])
+      })
     }
 
     // TODO: remove this when RSA problem is fixed
@@ -408,6 +415,14 @@ export class CryptoService implements CryptoServiceAbstraction {
     await this.clearEncKey()
     await this.clearKeyPair()
     await this.clearPinProtectedKey()
+    await this.clearKeyCache()
+  }
+
+  // Keys copied out of this service, e.g. into native caches, don't outlive a lock or logout
+  async clearKeyCache(): Promise<void> {
+    if (this.cryptoFunctionService.clearKeyCache != null) {
+      await this.cryptoFunctionService.clearKeyCache()
+    }
   }
 
   async toggleKey(): Promise<any> {
@@ -571,6 +586,20 @@ export class CryptoService implements CryptoServiceAbstraction {
     return new EncArrayBuffer(encBytes.buffer)
   }
 
+  // Same layout as encryptToBytes, streamed from file to file when the platform supports it
+  async encryptFile(
+    inputPath: string,
+    outputPath: string,
+    key?: SymmetricCryptoKey,
+    onProgress?: (processed: number, total: number) => void
+  ): Promise<number> {
+    if (this.cryptoFunctionService.aesEncryptFile == null) {
+      throw new Error('File encryption unavailable.')
+    }
+    const theKey = await this.getKeyForEncryption(key)
+    return this.cryptoFunctionService.aesEncryptFile(inputPath, outputPath, theKey, onProgress)
+  }
+
   async rsaEncrypt(data: ArrayBuffer, publicKey?: ArrayBuffer): Promise<EncString> {
     if (publicKey == null) {
       publicKey = await this.getPublicKey()
@@ -584,55 +613,44 @@ export class CryptoService implements CryptoServiceAbstraction {
   }
 
   async rsaDecrypt(encValue: string, privateKeyValue?: ArrayBuffer): Promise<ArrayBuffer> {
-    const headerPieces = encValue.split('.')
-    let encType: EncryptionType = null
-    let encPieces: string[]
-
-    if (headerPieces.length === 1) {
-      encType = EncryptionType.Rsa2048_OaepSha256_B64
-      encPieces = [headerPieces[0]]
-    } else if (headerPieces.length === 2) {
-      try {
-        encType = parseInt(headerPieces[0], null)
-        encPieces = headerPieces[1]?.split('|')
-      } catch (e) {}
-    }
-
-    switch (encType) {
-      case EncryptionType.Rsa2048_OaepSha256_B64:
-      case EncryptionType.Rsa2048_OaepSha1_B64:
-      // HmacSha256 types are deprecated
-      case EncryptionType.Rsa2048_OaepSha256_HmacSha256_B64:
-      case EncryptionType.Rsa2048_OaepSha1_HmacSha256_B64:
-        break
-      default:
-        throw new Error('encType unavailable.')
+    const [data, alg] = this.parseRsaEncString(encValue)
+    const privateKey = privateKeyValue ?? (await this.getPrivateKey())
+    if (privateKey == null) {
+      throw new Error('No private key.')
     }
 
-    if (encPieces == null || encPieces.length <= 0) {
-      throw new Error('encPieces unavailable.')
-    }
+    return this.cryptoFunctionService.rsaDecrypt(data, privateKey, alg)
+  }
 
-    const data = Utils.fromB64ToArray(encPieces[0]).buffer
+  // Decrypt many values with the same private key, one native round trip per algorithm
+  async rsaDecryptBatch(encValues: string[], privateKeyValue?: ArrayBuffer): Promise<ArrayBuffer[]> {
+    const parsed = encValues.map((encValue) => this.parseRsaEncString(encValue))
     const privateKey = privateKeyValue ?? (await this.getPrivateKey())
     if (privateKey == null) {
       throw new Error('No private key.')
     }
 
-    let alg: 'sha1' | 'sha256' = 'sha1'
-    switch (encType) {
-      case EncryptionType.Rsa2048_OaepSha256_B64:
-      case EncryptionType.Rsa2048_OaepSha256_HmacSha256_B64:
-        alg = 'sha256'
-        break
-      case EncryptionType.Rsa2048_OaepSha1_B64:
-      case EncryptionType.Rsa2048_OaepSha1_HmacSha256_B64:
-        break
-      default:
-        throw new Error('encType unavailable.')
+    const results: ArrayBuffer[] = new Array(encValues.length)
+    for (const alg of ['sha1', 'sha256'] as const) {
+      const indexes: number[] = []
+      parsed.forEach(([, valueAlg], index) => {
+        if (valueAlg === alg) {
+          indexes.push(index)
+        }
+      })
+      if (indexes.length === 0) {
+        continue
+      }
+      const decrypted = await this.cryptoFunctionService.rsaDecryptBatch(
+        indexes.map((index) => parsed[index][0]),
+        privateKey,
+        alg
+      )
+      indexes.forEach((index, i) => {
+        results[index] = decrypted[i]
+      })
     }
-
-    return this.cryptoFunctionService.rsaDecrypt(data, privateKey, alg)
+    return results
   }
 
   async decryptToBytes(encString: EncString, key?: SymmetricCryptoKey): Promise<ArrayBuffer> {
@@ -702,6 +720,28 @@ export class CryptoService implements CryptoServiceAbstraction {
     )
   }
 
+  // Resolves false, without writing outputPath, when the file is not encrypted with this key
+  async decryptFile(
+    inputPath: string,
+    outputPath: string,
+    key: SymmetricCryptoKey,
+    onProgress?: (processed: number, total: number) => void
+  ): Promise<boolean> {
+    if (this.cryptoFunctionService.aesDecryptFile == null) {
+      throw new Error('File decryption unavailable.')
+    }
+    const theKey = await this.getKeyForEncryption(key)
+    return this.cryptoFunctionService.aesDecryptFile(inputPath, outputPath, theKey, onProgress)
+  }
+
+  // encryptFile and decryptFile are only implemented natively on some platforms
+  canEncryptFiles(): boolean {
+    return (
+      this.cryptoFunctionService.aesEncryptFile != null &&
+      this.cryptoFunctionService.aesDecryptFile != null
+    )
+  }
+
   // EFForg/OpenWireless
   // ref https://github.com/EFForg/OpenWireless/blob/master/app/js/diceware.js
   async randomNumber(min: number, max: number): Promise<number> {
@@ -786,6 +826,54 @@ export class CryptoService implements CryptoServiceAbstraction {
     return this.secureStorageService.get<string>(Keys.key, { keySuffix })
   }
 
+  private parseRsaEncString(encValue: string): [ArrayBuffer, 'sha1' | 'sha256'] {
+    const headerPieces = encValue.split('.')
+    let encType: EncryptionType = null
+    let encPieces: string[]
+
+    if (headerPieces.length === 1) {
+      encType = EncryptionType.Rsa2048_OaepSha256_B64
+      encPieces = [headerPieces[0]]
+    } else if (headerPieces.length === 2) {
+      try {
+        encType = parseInt(headerPieces[0], null)
+        encPieces = headerPieces[1]?.split('|')
+      } catch (e) {}
+    }
+
+    switch (encType) {
+      case EncryptionType.Rsa2048_OaepSha256_B64:
+      case EncryptionType.Rsa2048_OaepSha1_B64:
+      // HmacSha256 types are deprecated
+      case EncryptionType.Rsa2048_OaepSha256_HmacSha256_B64:
+      case EncryptionType.Rsa2048_OaepSha1_HmacSha256_B64:
+        break
+      default:
+        throw new Error('encType unavailable.')
+    }
+
+    if (encPieces == null || encPieces.length <= 0) {
+      throw new Error('encPieces unavailable.')
+    }
+
+    const data = Utils.fromB64ToArray(encPieces[0]).buffer
+
+    let alg: 'sha1' | 'sha256' = 'sha1'
+    switch (encType) {
+      case EncryptionType.Rsa2048_OaepSha256_B64:
+      case EncryptionType.Rsa2048_OaepSha256_HmacSha256_B64:
+        alg = 'sha256'
+        break
+      case EncryptionType.Rsa2048_OaepSha1_B64:
+      case EncryptionType.Rsa2048_OaepSha1_HmacSha256_B64:
+        break
+      default:
+        throw new Error('encType unavailable.')
+    }
+
+    return [data, alg]
+  }
+
   private async aesEncrypt(data: ArrayBuffer, key: SymmetricCryptoKey): Promise<EncryptedObject> {
     const obj = new EncryptedObject()
     obj.key = await this.getKeyForEncryption(key)
@@ -822,6 +910,14 @@ export class CryptoService implements CryptoServiceAbstraction {
       return null
     }
 
+    if (this.cryptoFunctionService.aesDecryptQueued != null) {
+      const value = await this.cryptoFunctionService.aesDecryptQueued(data, iv, mac, theKey)
+      if (value == null) {
+        this.logService.error('mac failed.')
+      }
+      return value
+    }
+
     const fastParams = this.cryptoFunctionService.aesDecryptFastParameters(data, iv, mac, theKey)
     if (fastParams.macKey != null && fastParams.mac != null) {
       const computedMac = await this.cryptoFunctionService.hmacFast(
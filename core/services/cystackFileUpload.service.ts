@@ -25,4 +25,15 @@ export class CyStackFileUploadService {
 
         await apiCall(fd);
     }
+
+    // React Native streams a { uri } form part from disk
+    async uploadFile(encryptedFileName: string, encryptedFilePath: string, apiCall: (fd: FormData) => Promise<any>) {
+        const fd = new FormData();
+        fd.append('data', {
+            uri: Utils.toFileUri(encryptedFilePath),
+            name: encryptedFileName,
+            type: 'application/octet-stream',
+        } as any);
+        await apiCall(fd);
+    }
 }
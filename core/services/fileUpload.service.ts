@@ -69,15 +69,54 @@ export class FileUploadService implements FileUploadServiceAbstraction {
     uploadData: AttachmentUploadDataResponse,
     encryptedFileName: EncString,
     encryptedFileData: EncArrayBuffer
+  ) {
+    await this.uploadCipherAttachmentWith(
+      admin,
+      uploadData,
+      (apiCall) =>
+        this.cystackFileUploadService.upload(
+          encryptedFileName.encryptedString,
+          encryptedFileData,
+          apiCall
+        ),
+      (renewalCallback) =>
+        this.azureFileUploadService.upload(uploadData.url, encryptedFileData, renewalCallback)
+    )
+  }
+
+  // Same as uploadCipherAttachment, the encrypted file is read natively instead of from JS memory
+  async uploadCipherAttachmentFile(
+    admin: boolean,
+    uploadData: AttachmentUploadDataResponse,
+    encryptedFileName: EncString,
+    encryptedFilePath: string
+  ) {
+    await this.uploadCipherAttachmentWith(
+      admin,
+      uploadData,
+      (apiCall) =>
+        this.cystackFileUploadService.uploadFile(
+          encryptedFileName.encryptedString,
+          encryptedFilePath,
+          apiCall
+        ),
+      (renewalCallback) =>
+        this.azureFileUploadService.uploadFile(uploadData.url, encryptedFilePath, renewalCallback)
+    )
+  }
+
+  private async uploadCipherAttachmentWith(
+    admin: boolean,
+    uploadData: AttachmentUploadDataResponse,
+    directUpload: (apiCall: (fd: FormData) => Promise<any>) => Promise<any>,
+    azureUpload: (renewalCallback: () => Promise<string>) => Promise<any>
   ) {
     const response = admin ? uploadData.cipherMiniResponse : uploadData.cipherResponse
     try {
       switch (uploadData.fileUploadType) {
         case FileUploadType.Direct:
-          await this.cystackFileUploadService.upload(
-            encryptedFileName.encryptedString,
-            encryptedFileData,
-            (fd) => this.apiService.postAttachmentFile(response.id, uploadData.attachmentId, fd)
+          await directUpload((fd) =>
+            this.apiService.postAttachmentFile(response.id, uploadData.attachmentId, fd)
           )
           break
         case FileUploadType.Azure:
@@ -88,11 +127,7 @@ export class FileUploadService implements FileUploadServiceAbstraction {
             )
             return renewalResponse.url
           }
-          await this.azureFileUploadService.upload(
-            uploadData.url,
-            encryptedFileData,
-            renewalCallback
-          )
+          await azureUpload(renewalCallback)
           break
         default:
           throw new Error('Unknown file upload type.')
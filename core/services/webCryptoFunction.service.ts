@@ -264,6 +264,16 @@ export class WebCryptoFunctionService implements CryptoFunctionService {
         return await this.subtle.decrypt(rsaParams, impKey, data);
     }
 
+    async rsaDecryptBatch(data: ArrayBuffer[], privateKey: ArrayBuffer,
+        algorithm: 'sha1' | 'sha256'): Promise<ArrayBuffer[]> {
+        const rsaParams = {
+            name: 'RSA-OAEP',
+            hash: { name: this.toWebCryptoAlgorithm(algorithm) },
+        };
+        const impKey = await this.subtle.importKey('pkcs8', privateKey, rsaParams, false, ['decrypt']);
+        return Promise.all(data.map(d => this.subtle.decrypt(rsaParams, impKey, d)));
+    }
+
     async rsaExtractPublicKey(privateKey: ArrayBuffer): Promise<ArrayBuffer> {
         const rsaParams = {
             name: 'RSA-OAEP',